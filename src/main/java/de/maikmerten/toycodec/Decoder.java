@@ -24,19 +24,21 @@ SOFTWARE.
 
 package de.maikmerten.toycodec;
 
-import de.maikmerten.toycodec.transform.MDCT;
+import de.maikmerten.toycodec.transform.IntMDCT;
+import de.maikmerten.toycodec.transform.Transform;
+import de.maikmerten.toycodec.transform.TransformFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 import de.maikmerten.toycodec.bitstream.FrameHeader;
 import de.maikmerten.toycodec.bitstream.QuantInfo;
 import de.maikmerten.toycodec.bitstream.StreamHeader;
 import de.maikmerten.toycodec.coding.Bands;
-import de.maikmerten.toycodec.coding.MidSide;
 import de.maikmerten.toycodec.coding.Quant;
-import de.maikmerten.toycodec.coding.ZigZag;
 import de.maikmerten.toycodec.coding.huffman.HuffCoder;
 import de.maikmerten.toycodec.io.AudioWriter;
 import de.maikmerten.toycodec.io.BitInputStream;
@@ -45,26 +47,6 @@ public class Decoder {
 
     private long[] quantInfoStat = new long[3];
 
-    private void unpackCoeffs(byte[][] coeffBytes, int[] coeffs) {
-        if (coeffBytes.length != 2) {
-            throw new IllegalArgumentException("coeffBytes.length must be 2");
-        }
-
-        for (int i = 0; i < coeffs.length; i++) {
-            byte lsb = coeffBytes[0][i];
-            byte msb = coeffBytes[1][i];
-            int coeff = ((msb & 0xFF) << 8) | (lsb & 0xFF);
-            coeffs[i] = ZigZag.decodeZigZag(coeff);
-        }
-    }
-
-    private void decodeMidSide(float[][] samples, int midSideChannels) {
-        for (int c = 0; (c + 1) < samples.length && (c + 1) < midSideChannels; c += 2) {
-            float[][] channelSamples = { samples[c], samples[c + 1] };
-            MidSide.midSideToStereo(channelSamples);
-        }
-    }
-
     private void readQuantInfo(FrameHeader fh, QuantInfo[] quantInfos, int channels, int bandsNum, BitInputStream bis) {
         // read quantization information
         switch (fh.getQuantInfo()) {
@@ -94,12 +76,29 @@ public class Decoder {
         System.out.println("      QUANTINFO_NONE: " + quantInfoStat[2]);
     }
 
+    /**
+     * Bitstream reader over the in-memory input if given, otherwise over the
+     * memory-mapped input file. Files too large to map are streamed.
+     */
+    private BitInputStream openBitstream(DecoderParams parms) throws Exception {
+        if (parms.input != null) {
+            return new BitInputStream(parms.input);
+        }
+        try (FileChannel channel = FileChannel.open(parms.infile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                // the mapping stays valid after the channel is closed
+                return new BitInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return new BitInputStream(new FileInputStream(parms.infile));
+    }
+
     public void decode(DecoderParams parms) {
-        File bitstreamfile = parms.infile;
         File pcmfile = parms.outfile;
 
         try {
-            BitInputStream bis = new BitInputStream(new FileInputStream(bitstreamfile));
+            BitInputStream bis = openBitstream(parms);
             FileOutputStream fos = new FileOutputStream(pcmfile);
 
             StreamHeader sh = StreamHeader.fromInputStream(bis);
@@ -112,37 +111,59 @@ public class Decoder {
 
             System.out.println("sampleRate: " + sampleRate + "   channels: " + channels + "   width: " + width + "   bands: " + bandsNum);
 
+            // reduced-rate decoding: inverse transform of the lowest width/divisor lines only,
+            // output sample m then sits at input position divisor * m + (divisor - 1) / 2
+            int rateDivisor = parms.rateDivisor;
+            if (rateDivisor != 1 && rateDivisor != 2 && rateDivisor != 4) {
+                throw new IllegalArgumentException("sample rate divisor must be 1, 2 or 4");
+            }
+            int outWidth = width / rateDivisor;
+
             // +++++++++++++++++++++++++++++++++++++++++
-            AudioWriter audioWriter = new AudioWriter(channels, sampleRate);
+            AudioWriter audioWriter = new AudioWriter(channels, sampleRate / rateDivisor);
             audioWriter.updateHeader(pcmfile);
-            audioWriter.setSkipSamples(sh.getPreRoll());
-            audioWriter.setMaxSamples(totalSamples);
+            audioWriter.setSkipSamples(sh.getPreRoll() / rateDivisor);
+            audioWriter.setMaxSamples((totalSamples + rateDivisor - 1) / rateDivisor);
             Bands bandsInst = Bands.fromBandWidths(sh.getBandWidths());
-            Quant quant = new Quant(coeffScale, sh.getQuantizers(), bandsInst);
+            // a transform of width/divisor lines sums over 1/divisor of the samples, scale coefficients to match
+            Quant quant = new Quant(coeffScale * rateDivisor, sh.getQuantizers(), bandsInst);
 
             HuffCoder hc = new HuffCoder(sh.getHuffmanLengths());
             hc.setBitInput(bis);
 
-            MDCT[] mdcts = new MDCT[channels];
+            TransformFactory.Backend backend = TransformFactory.select(parms.transform);
+            if (parms.fixedPoint) {
+                backend = TransformFactory.Backend.FIXED;
+            }
+            backend = TransformFactory.verify(backend, outWidth);
+            boolean fixedPoint = backend == TransformFactory.Backend.FIXED;
+
+            Transform[] mdcts = new Transform[channels];
+            IntMDCT[] intMdcts = new IntMDCT[channels];
             for (int c = 0; c < channels; c++) {
-                mdcts[c] = new MDCT(width);
+                if (fixedPoint) {
+                    intMdcts[c] = new IntMDCT(outWidth);
+                } else {
+                    mdcts[c] = TransformFactory.create(backend, outWidth);
+                }
             }
 
             byte[][][] coeffsBytes = new byte[channels][2][width];
-            int[] coeffs = new int[width];
-            float[] coeffsUnquantized = new float[width];
-            float[][] sampleBuffers = new float[channels][width];
+            int[] coeffLines = new int[channels];
+            float[][] sampleBuffers = new float[channels][outWidth];
+            int[][] intSampleBuffers = new int[channels][outWidth];
+            byte[] pcm = new byte[outWidth * channels * 2];
             QuantInfo[] quantInfos = new QuantInfo[channels];
 
             FrameHeader fh = null;
 
             long frames = 0;
             int flushframes = 0;
-            while (bis.available() > 0 || flushframes > 0) {
+            while (bis.hasBytes() || flushframes > 0) {
 
                 boolean readFromStream = false;
 
-                if (bis.available() > 0) {
+                if (bis.hasBytes()) {
                     // read frame header
                     fh = FrameHeader.fromInputStream(bis);
 
@@ -150,38 +171,58 @@ public class Decoder {
                     readQuantInfo(fh, quantInfos, channels, bandsNum, bis);
 
                     // read Huffman-coded quanitzed coefficients from stream
-                    hc.readByteSymbols(coeffsBytes, true);
+                    hc.readByteSymbols(coeffsBytes, coeffLines, true);
 
                     // we have fresh data, no dummy frames
                     readFromStream = true;
                 }
 
                 for (int c = 0; c < channels; c++) {
-                    MDCT mdct = mdcts[c];
-                    float[] samples = sampleBuffers[c];
-
+                    // coefficients after the last STOP-terminated run are zero
+                    int lines = 0;
+                    int[] quantIdx = null;
                     if (readFromStream) { // read from stream
-                        QuantInfo qi = quantInfos[c];
-                        unpackCoeffs(coeffsBytes[c], coeffs);
-                        quant.unquantize(coeffs, coeffsUnquantized, qi.getQuantIndexes());
-                    } else { // push dummy frames to flush window overlap
-                        Arrays.fill(coeffsUnquantized, 0f);
-                        if (c == channels - 1) {
-                            flushframes--;
-                        }
+                        lines = Math.min(coeffLines[c], outWidth);
+                        quantIdx = quantInfos[c].getQuantIndexes();
+                    } else if (c == channels - 1) { // push dummy frames to flush window overlap
+                        flushframes--;
                     }
 
-                    mdct.submitCoefficients(coeffsUnquantized);
-                    mdct.imdct(samples);
-                }
-
-                if (fh.getMidSide()) {
-                    decodeMidSide(sampleBuffers, sh.getMidSideChannels());
+                    // unpack and dequantize straight into the MDCT coefficient block
+                    if (fixedPoint) {
+                        IntMDCT mdct = intMdcts[c];
+                        int[] coeffsUnquantized = mdct.getCoefficientInput();
+                        if (readFromStream) {
+                            quant.unquantize(coeffsBytes[c], coeffsUnquantized, quantIdx, lines, IntMDCT.COEFF_FRAC_BITS);
+                        } else {
+                            Arrays.fill(coeffsUnquantized, 0);
+                        }
+                        mdct.commitCoefficients(lines);
+                        mdct.imdct(intSampleBuffers[c]);
+                    } else {
+                        Transform mdct = mdcts[c];
+                        float[] coeffsUnquantized = mdct.getCoefficientInput();
+                        if (readFromStream) {
+                            quant.unquantize(coeffsBytes[c], coeffsUnquantized, quantIdx, lines);
+                        } else {
+                            Arrays.fill(coeffsUnquantized, 0f);
+                        }
+                        mdct.commitCoefficients(lines);
+                        mdct.imdct(sampleBuffers[c]);
+                    }
                 }
 
                 System.out.print("\rdecoded " + (++frames) + " frames");
 
-                audioWriter.writeAudio(fos, sampleBuffers);
+                // mid/side reconstruction, PCM conversion and interleaving in one pass
+                int midSideChannels = fh.getMidSide() ? sh.getMidSideChannels() : 0;
+                int pcmBytes;
+                if (fixedPoint) {
+                    pcmBytes = audioWriter.interleave(intSampleBuffers, IntMDCT.SAMPLE_FRAC_BITS, midSideChannels, pcm);
+                } else {
+                    pcmBytes = audioWriter.interleave(sampleBuffers, midSideChannels, pcm);
+                }
+                fos.write(pcm, 0, pcmBytes);
             }
 
             bis.close();
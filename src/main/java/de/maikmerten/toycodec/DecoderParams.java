@@ -25,10 +25,19 @@ SOFTWARE.
 package de.maikmerten.toycodec;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 public class DecoderParams {
     
     public File infile;
+    // in-memory bitstream (from position to limit), read instead of infile if set
+    public ByteBuffer input = null;
     public File outfile;
+    // integer-only dequantization and IMDCT, bit-exact output on every platform
+    public boolean fixedPoint = false;
+    // transform backend name (see TransformFactory.Backend), null to use the system property or default
+    public String transform = null;
+    // output 1/2 or 1/4 of the sample rate by inverse transforming only the lowest lines
+    public int rateDivisor = 1;
 
 }
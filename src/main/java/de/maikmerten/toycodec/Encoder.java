@@ -23,9 +23,13 @@ SOFTWARE.
  */
 package de.maikmerten.toycodec;
 
-import de.maikmerten.toycodec.transform.MDCT;
+import de.maikmerten.toycodec.transform.Transform;
+import de.maikmerten.toycodec.transform.TransformFactory;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import de.maikmerten.toycodec.bitstream.CoeffWriter;
@@ -36,9 +40,10 @@ import de.maikmerten.toycodec.coding.MidSide;
 import de.maikmerten.toycodec.coding.Quant;
 import de.maikmerten.toycodec.coding.huffman.HuffTables;
 import de.maikmerten.toycodec.bitstream.StreamHeader;
+import de.maikmerten.toycodec.encoder.BandCostCache;
 import de.maikmerten.toycodec.encoder.BitrateControl;
 import de.maikmerten.toycodec.encoder.MidSideAnalysis;
-import de.maikmerten.toycodec.encoder.Noise;
+import de.maikmerten.toycodec.encoder.PlaneCache;
 import de.maikmerten.toycodec.io.AudioReader;
 
 public class Encoder {
@@ -52,6 +57,9 @@ public class Encoder {
     private Bands bands = null;
     private BitrateControl bitratectrl = null;
     private CoeffWriter coeffWriter = null;
+    private BandCostCache bandCache = null;
+    // frame and quantizer headers of the current frame
+    private final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
     private int prevQuantCounter = 0;
     private long quantizerCount = 0;
     private long quantizerSum = 0;
@@ -69,7 +77,7 @@ public class Encoder {
     };
 
     // scale and quantizers must be transmitted in stream header
-    private int scale = 512;
+    private int scale = Quant.scaleForWidth(width);
 
     private int[] generateQuantizers() {
         int[] quantizers = new int[63];
@@ -165,6 +173,7 @@ public class Encoder {
 
             getDefaultQuant(quantIdx);
             ensureCoeffsInRange(coeffWriter, quant, bands, channelCoeffs, quantCoeffs, quantIdx);
+            bandCache.reset(channelCoeffs, quantCoeffs);
 
             while (coeffBits > coeffBitsBudget) {
                 if (firstQuant) {
@@ -173,11 +182,11 @@ public class Encoder {
                     increaseQuant(quantIdx);
                 }
 
-                // ruin coefficients via quantization
-                quant.quantize(channelCoeffs, quantCoeffs, quantIdx);
+                // ruin coefficients via quantization (only bands with changed quantizers)
+                bandCache.update(quantIdx);
 
                 // estimate bytes needed to encode these coefficients
-                coeffBits = (int) coeffWriter.estimateCoeffBits(quantCoeffs);
+                coeffBits = (int) bandCache.estimateBits();
 
                 if (count++ > 200) {
                     System.out.println("WARNING: couldn't increase quantizers to match bitrate\n");
@@ -199,8 +208,6 @@ public class Encoder {
 
         int channels = coeffs.length;
 
-        float[] unquantizedCoeffs = new float[coeffs[0].length];
-
         // ### Quantization loop per channel ###
         for (int c = 0; c < channels; c++) {
             float[] channelCoeffs = coeffs[c];
@@ -214,17 +221,15 @@ public class Encoder {
 
             Arrays.fill(quantIdx, 0);
             ensureCoeffsInRange(coeffWriter, quant, bands, channelCoeffs, quantCoeffs, quantIdx);
-            
-            int[] bandMap = bands.getBandMap();
-            boolean[] skipMap = bands.getSkipMap();
+            bandCache.reset(channelCoeffs, quantCoeffs);
 
             boolean finished = false;
             while(!finished) {
                 finished = true;
-                quant.quantize(channelCoeffs, quantCoeffs, quantIdx);
-                quant.unquantize(quantCoeffs, unquantizedCoeffs, quantIdx);
+                // re-quantize bands with changed quantizers, their noise is re-evaluated on demand
+                bandCache.update(quantIdx);
                 for(int band = 0; band < quantIdx.length; band++) {
-                    float noise = Noise.snr(channelCoeffs, unquantizedCoeffs, bandMap, skipMap, band);
+                    float noise = bandCache.noise(band);
                     float noiseTarget = noiseTargets[band] * qualityAdjust;
 
                     noiseTarget *= midsideBitrateAdjust[c];
@@ -247,9 +252,11 @@ public class Encoder {
     }
 
 
-    private int writeFrameToBitstream(CoeffWriter coeffWriter, boolean midSide, int[][] quantIndexes,
-            int[][] quantizedCoefficients) {
+    private int writeFrameToBitstream(CoeffWriter coeffWriter, PlaneCache planeCache, boolean midSide,
+            int[][] quantIndexes, int[][] quantizedCoefficients) {
         int frameBits = 0;
+        ByteArrayOutputStream headerBytes = this.headerBytes;
+        headerBytes.reset();
 
         boolean hasGranuleHeaders = quantIndexes != null;
         int granuleHeaders = FrameHeader.QUANTINFO_NONE;
@@ -260,25 +267,57 @@ public class Encoder {
 
         // write frame header
         FrameHeader fh = new FrameHeader(granuleHeaders, midSide);
-        fh.writeHeader(coeffWriter.getOutputStream());
+        fh.writeHeader(headerBytes);
         frameBits += FrameHeader.BYTES * 8;
 
         // Write granule headers (none, one, or for all channels)
         for (int c = 0; quantIndexes != null && c < quantIndexes.length; c++) {
             int[] quantIdx = quantIndexes[c];
             QuantInfo qi = new QuantInfo(quantIdx);
-            qi.writeHeader(coeffWriter.getOutputStream());
+            qi.writeHeader(headerBytes);
             frameBits += QuantInfo.BYTES * 8;
         }
 
         // Write Huffman-coded quantized coefficients of all channels
-        byte[] coeffBytes = coeffWriter.encodeCoeffsHuffman(quantizedCoefficients);
-        coeffWriter.writeData(coeffBytes);
-        frameBits += coeffBytes.length * 8;
+        int coeffBytes = coeffWriter.encodeCoeffs(quantizedCoefficients);
+        if (planeCache != null) {
+            // two-pass mode: keep headers and coefficient planes for the second pass
+            planeCache.writeFrame(headerBytes.toByteArray(), coeffWriter.getCoeffBytes());
+        } else {
+            coeffWriter.writeData(headerBytes);
+            coeffWriter.writeEncodedCoeffs();
+        }
+        frameBits += coeffBytes * 8;
 
         return frameBits;
     }
 
+    /**
+     * Second pass: codes the cached frames with Huffman tables optimized for
+     * the statistics of the first pass. Returns the size of the coded frames.
+     */
+    private long writeSecondPass(PlaneCache planeCache, StreamHeader streamheader, OutputStream os, int channels,
+            int flushFrames) {
+        int[][] huffLengths = coeffWriter.getOptimizedHuffmanLengths();
+        streamheader.setHuffmanLengths(huffLengths);
+        streamheader.writeHeader(os);
+
+        CoeffWriter secondPassWriter = new CoeffWriter(os, huffLengths);
+        secondPassWriter.setFlushInterval(flushFrames);
+        byte[][][] coeffBytes = new byte[channels][2][width];
+        long bytesTotal = 0;
+
+        planeCache.rewind();
+        byte[] headerBytes;
+        while ((headerBytes = planeCache.readFrame(coeffBytes)) != null) {
+            int frameCoeffBytes = secondPassWriter.encodePlanes(coeffBytes);
+            secondPassWriter.writeData(headerBytes);
+            secondPassWriter.writeEncodedCoeffs();
+            bytesTotal += headerBytes.length + frameCoeffBytes;
+        }
+        return bytesTotal;
+    }
+
     private boolean selectQuantizers(boolean[] needsNewQuantIdx, int[][] quantIndexes, int[][] prevQuantIndexes,
             float[][] coeffs, int[][] quantCoefficients) {
         int channels = needsNewQuantIdx.length;
@@ -313,6 +352,13 @@ public class Encoder {
         return newQuantizers;
     }
 
+    private void attachSampleInputs(float[][] samples, Transform[] mdcts) {
+        // let the audio reader fill the MDCT sample blocks in place
+        for (int c = 0; c < samples.length; c++) {
+            samples[c] = mdcts[c].getSampleInput();
+        }
+    }
+
     public void encodeWav(EncoderParams parms) {
 
         File infile = parms.infile;
@@ -320,16 +366,25 @@ public class Encoder {
         this.ratio = (int) parms.ratio;
         this.qualityAdjust = parms.quality;
         this.freqCutoff = parms.lowpass;
+        this.width = parms.width;
+        if ((width % 16) != 0 || width < 16 || width > StreamHeader.MAX_WIDTH) {
+            throw new IllegalArgumentException("width needs to be a multiple of 16 from 16 to " + StreamHeader.MAX_WIDTH);
+        }
+        this.scale = Quant.scaleForWidth(width);
 
         int n = width; // select block size
 
-        FileOutputStream bitOut = null;
+        // all output goes through one buffer, flushed at the configured interval and when closing
+        OutputStream bitOut = null;
         try {
-            bitOut = new FileOutputStream(bitstreamfile);
+            bitOut = new BufferedOutputStream(new FileOutputStream(bitstreamfile), CoeffWriter.OUTPUT_BUFFER_SIZE);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
         this.coeffWriter = new CoeffWriter(bitOut);
+        coeffWriter.setFlushInterval(parms.flushFrames);
+        // with two passes the first pass only collects statistics and caches the frames
+        PlaneCache planeCache = parms.twoPass ? new PlaneCache() : null;
 
         AudioReader aio = new AudioReader();
         float[][] samples = aio.openAudioStream(infile, n);
@@ -342,9 +397,10 @@ public class Encoder {
         int[][] quantCoefficients = new int[channels][n];
         boolean[] needsNewQuantIdx = new boolean[channels];
         float[] midsideBitrateAdjust = new float[channels];
-        MDCT[] mdcts = new MDCT[channels];
+        Transform[] mdcts = new Transform[channels];
+        TransformFactory.Backend backend = TransformFactory.select(parms.transform);
         for (int i = 0; i < mdcts.length; i++) {
-            mdcts[i] = new MDCT(n);
+            mdcts[i] = TransformFactory.create(backend, n);
         }
 
         int[] quantizers = generateQuantizers();
@@ -353,20 +409,25 @@ public class Encoder {
         this.quantizerCount = 0;
 
         this.bands = new Bands(width, sampleRate, this.freqCutoff);
+        int codedLines = bands.getCodedLines();
 
         int[] bandWidths = bands.getBandWidths();
         StreamHeader streamheader = new StreamHeader(aio.getSampleRate(), width, 0, channels, channels, width,
                 bandWidths.length,
                 bandWidths, this.scale, quantizers, HuffTables.COEFFS);
-        streamheader.writeHeader(bitOut);
+        if (planeCache == null) {
+            streamheader.writeHeader(bitOut);
+        }
 
         this.bitratectrl = new BitrateControl(16, ratio, channels, n);
         this.quant = new Quant(this.scale, quantizers, bands);
+        this.bandCache = new BandCostCache(quant, bands, coeffWriter);
 
         long bytesTotal = 0;
 
         try {
             // read new block of audio data
+            attachSampleInputs(samples, mdcts);
             int samplesRead = aio.readAudio(samples);
 
             long frame = 0;
@@ -390,11 +451,11 @@ public class Encoder {
 
                 // first run the MDCT for all channels for coeff analysis
                 for (int c = 0; c < samples.length; c++) {
-                    MDCT m = mdcts[c];
-                    // put samples into sample buffer
-                    m.submitSamples(samples[c]);
-                    // run MDCT, get coeffs
-                    m.mdct(coeffs[c]);
+                    Transform m = mdcts[c];
+                    // samples were read into the sample buffer, make them current
+                    m.commitSamples();
+                    // run MDCT, get coeffs (lines above the lowpass are quantized to zero anyway)
+                    m.mdct(coeffs[c], codedLines);
                 }
 
                 if(vbr) {
@@ -410,8 +471,8 @@ public class Encoder {
                         quantCoefficients);
 
                 // ### Write bitstream ###
-                int frameBits = writeFrameToBitstream(coeffWriter, midSide, (newQuantizers ? quantIndexes : null),
-                        quantCoefficients);
+                int frameBits = writeFrameToBitstream(coeffWriter, planeCache, midSide,
+                        (newQuantizers ? quantIndexes : null), quantCoefficients);
                 bitratectrl.submitFrameBits(frameBits);
                 bytesTotal += frameBits / 8;
 
@@ -424,12 +485,20 @@ public class Encoder {
                         + (midSide ? 1 : 0) + "\t" + String.format("%.02f", seconds) + " s   "
                         + String.format("%.02f", kbps) + " kbps");
 
+                attachSampleInputs(samples, mdcts);
                 samplesRead = aio.readAudio(samples);
             }
-            bitOut.close();
-
             System.out.println();
-            coeffWriter.computeHuffmanLengths();
+
+            if (planeCache != null) {
+                long secondPassBytes = writeSecondPass(planeCache, streamheader, bitOut, channels,
+                        parms.flushFrames);
+                System.out.println("Second pass with optimized Huffman tables: " + secondPassBytes + " bytes ("
+                        + String.format("%.02f", (100.0 * secondPassBytes) / bytesTotal) + " % of first pass)");
+            } else {
+                coeffWriter.computeHuffmanLengths();
+            }
+            bitOut.close();
 
             double averageQuantIdx = (quantizerSum * 1.0) / (quantizerCount * 1.0);
             System.out.println("Average quantizer index: " + averageQuantIdx);
@@ -439,6 +508,10 @@ public class Encoder {
             streamheader.updateHeader(bitstreamfile);
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            if (planeCache != null) {
+                planeCache.close();
+            }
         }
     }
 
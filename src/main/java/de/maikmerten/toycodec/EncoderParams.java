@@ -33,5 +33,12 @@ public class EncoderParams {
     public int lowpass;
     public float ratio = 6;
     public float quality = 5;
+    public int width = 256;
+    // transform backend name (see TransformFactory.Backend), null to use the system property or default
+    public String transform = null;
+    // cache the quantized frames and code them with per-stream Huffman tables in a second pass
+    public boolean twoPass = false;
+    // flush the output file every n frames, 0 to only flush when the buffer is full and at the end
+    public int flushFrames = 0;
 
 }
@@ -58,6 +58,24 @@ public class Frontend {
         Option lowpass = Option.builder("l").longOpt("lowpass").desc("encoder lowpass in Hz").hasArg().build();
         opts.addOption(lowpass);
 
+        Option width = Option.builder("w").longOpt("width").desc("encoder transform width (multiple of 16, up to 4080)").hasArg().build();
+        opts.addOption(width);
+
+        Option transform = Option.builder("t").longOpt("transform").desc("MDCT backend: direct, vector, fft or fixed (decoder only)").hasArg().build();
+        opts.addOption(transform);
+
+        Option twopass = Option.builder("p").longOpt("twopass").desc("two-pass encoding with Huffman tables optimized for the stream").build();
+        opts.addOption(twopass);
+
+        Option flushframes = Option.builder("f").longOpt("flushframes").desc("flush encoder output every n frames (default: only at the end)").hasArg().build();
+        opts.addOption(flushframes);
+
+        Option fixedpoint = Option.builder("x").longOpt("fixedpoint").desc("decode with bit-exact fixed-point arithmetic").build();
+        opts.addOption(fixedpoint);
+
+        Option reduce = Option.builder("R").longOpt("reduce").desc("decode at 1/2 or 1/4 of the sample rate (2 or 4)").hasArg().build();
+        opts.addOption(reduce);
+
         return opts;
     }
 
@@ -74,6 +92,10 @@ public class Frontend {
         parms.ratio = Float.parseFloat(cmdline.getOptionValue("ratio", "6"));
         parms.quality = Float.parseFloat(cmdline.getOptionValue("quality", "-1"));
         parms.lowpass = Integer.parseInt(cmdline.getOptionValue("lowpass", "20000"));
+        parms.width = Integer.parseInt(cmdline.getOptionValue("width", "256"));
+        parms.transform = cmdline.getOptionValue("transform");
+        parms.twoPass = cmdline.hasOption("twopass");
+        parms.flushFrames = Integer.parseInt(cmdline.getOptionValue("flushframes", "0"));
 
         Encoder enc = new Encoder();
         enc.encodeWav(parms);
@@ -86,6 +108,9 @@ public class Frontend {
 
         parms.infile = new File(cmdline.getOptionValue("input"));
         parms.outfile = new File(cmdline.getOptionValue("output"));
+        parms.fixedPoint = cmdline.hasOption("fixedpoint");
+        parms.transform = cmdline.getOptionValue("transform");
+        parms.rateDivisor = Integer.parseInt(cmdline.getOptionValue("reduce", "1"));
 
         Decoder dec = new Decoder();
         dec.decode(parms);
@@ -31,31 +31,100 @@ import de.maikmerten.toycodec.coding.huffman.HuffTables;
 import de.maikmerten.toycodec.coding.huffman.Huffman;
 import de.maikmerten.toycodec.io.BitOutputStream;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.stream.IntStream;
 
 
 public class CoeffWriter {
 
+    /**
+     * Size of the output buffer for files. Frames are written without flushing,
+     * so the output stream should be buffered.
+     */
+    public static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Max. number of lines whose packed costs (see getCostTable()) can be summed:
+     * each 16 bit half then holds at most 0xFFFF, covering StreamHeader.MAX_WIDTH.
+     */
+    public static final int MAX_COST_LINES = 0xFFFF / StreamHeader.MAX_HUFFMAN_LENGTH;
+
     final OutputStream os;
     final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    final HuffCoder huffCoder = new HuffCoder(HuffTables.COEFFS);
+    final int[][] huffLengths;
+    final HuffCoder huffCoder;
     final BitOutputStream writer = new BitOutputStream(baos);
 
     private byte[][][] coeffByteBuf = null;
+    // per-channel coders for parallel coding, created on first use
+    private ChannelCoder[] channelCoders = null;
+    // see buildCostTable(), built on first use
+    private int[] costTable = null;
+    private int stopCost;
+    // flush the output stream every flushInterval frames, 0 to leave it to the stream
+    private int flushInterval = 0;
+    private int unflushedFrames = 0;
+
+    // min. lines per frame (all channels) to code channels in parallel, below
+    // that the hand-off to the common pool costs more than it saves
+    private static final int PARALLEL_MIN_LINES = 4096;
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Coder and bit buffer of one channel for parallel coding.
+     */
+    private static class ChannelCoder {
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private final BitOutputStream writer = new BitOutputStream(baos);
+        private final HuffCoder coder;
+        private long bits;
+
+        private ChannelCoder(int[][] huffLengths) {
+            this.coder = new HuffCoder(huffLengths);
+            this.coder.setWriter(writer);
+        }
+    }
 
     public CoeffWriter(File f) {
         try {
-            this.os = new FileOutputStream(f);
+            this.os = new BufferedOutputStream(new FileOutputStream(f), OUTPUT_BUFFER_SIZE);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        this.huffLengths = HuffTables.COEFFS;
+        this.huffCoder = new HuffCoder(huffLengths);
     }
 
     public CoeffWriter(OutputStream os) {
+        this(os, HuffTables.COEFFS);
+    }
+
+    /**
+     * Codes coefficients with the given Huffman code lengths (per context)
+     * instead of the static tables.
+     */
+    public CoeffWriter(OutputStream os, int[][] huffLengths) {
         this.os = os;
+        this.huffLengths = huffLengths;
+        this.huffCoder = new HuffCoder(huffLengths);
+    }
+
+    /**
+     * Flushes the output stream after every n-th frame written by
+     * writeEncodedCoeffs(), e.g. for consumers reading the file while it is
+     * being encoded. With 0 (the default) the stream is only flushed when its
+     * buffer runs full and when closing.
+     */
+    public void setFlushInterval(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("flush interval must not be negative");
+        }
+        this.flushInterval = frames;
+        this.unflushedFrames = 0;
     }
 
     public OutputStream getOutputStream() {
@@ -83,31 +152,70 @@ public class CoeffWriter {
         return -1;
     }
 
-    private int packCoeffsSingleByte(int[] coeffs, byte[] coeffByteBuf, int shift, int offset) {
-        int lastNonZero = offset;
-        for (int i = 0; i < coeffs.length; i++) {
-            int coeff = ZigZag.encodeZigZag(coeffs[i]);
-            byte b = (byte) ((coeff >> shift) & 0xFF);
-            coeffByteBuf[i + offset] = b;
-            if (b != 0) {
-                lastNonZero = i + offset;
-            }
+    /**
+     * Code lengths of both contexts per zig-zag coded 16 bit value: LSB context
+     * in the lower, MSB context in the upper 16 bits. Sums over blocks of up to
+     * MAX_COST_LINES lines stay below 0x10000 per half, so the lower half cannot
+     * carry into the upper one.
+     */
+    private int[] buildCostTable() {
+        huffCoder.setContext(0);
+        int[] lsbLengths = huffCoder.getSymbolLengths();
+        huffCoder.setContext(1);
+        int[] msbLengths = huffCoder.getSymbolLengths();
+
+        int[] table = new int[1 << 16];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = lsbLengths[i & 0xFF] | (msbLengths[i >> 8] << 16);
         }
-        return lastNonZero;
+        // the estimate always includes a STOP symbol per plane
+        stopCost = lsbLengths[lsbLengths.length - 1] + msbLengths[msbLengths.length - 1];
+        return table;
     }
 
-    public long estimateCoeffBits(int[] coeffs) {
-        byte[] buf = new byte[coeffs.length];
+    /**
+     * Cost table as used by estimateCoeffBits(), indexed by the lower 16 bits
+     * of the zig-zag coded coefficient.
+     */
+    public int[] getCostTable() {
+        if (costTable == null) {
+            costTable = buildCostTable();
+        }
+        return costTable;
+    }
 
-        huffCoder.setContext(0);
-        int lastidx = packCoeffsSingleByte(coeffs, buf, 0, 0);
-        long bits = huffCoder.estimateBits(buf, 0, lastidx);
+    /**
+     * Bits of the STOP symbols of both contexts.
+     */
+    public int getStopCost() {
+        getCostTable();
+        return stopCost;
+    }
 
-        huffCoder.setContext(1);
-        lastidx = packCoeffsSingleByte(coeffs, buf, 8, 0);
-        bits += huffCoder.estimateBits(buf, 0, lastidx);
+    public long estimateCoeffBits(int[] coeffs) {
+        if (coeffs.length > MAX_COST_LINES) {
+            throw new IllegalArgumentException("at most " + MAX_COST_LINES + " coefficients supported");
+        }
+        int[] table = getCostTable();
+
+        // running cost of both planes, snapshot at the last non-zero byte of
+        // each plane (the first line is always coded)
+        int code = ZigZag.encodeZigZag(coeffs[0]) & 0xFFFF;
+        int cost = table[code];
+        int lsbCost = cost;
+        int msbCost = cost;
+        for (int i = 1; i < coeffs.length; i++) {
+            code = ZigZag.encodeZigZag(coeffs[i]) & 0xFFFF;
+            cost += table[code];
+            if ((code & 0xFF) != 0) {
+                lsbCost = cost;
+            }
+            if (code > 0xFF) {
+                msbCost = cost;
+            }
+        }
 
-        return bits;
+        return (lsbCost & 0xFFFF) + (msbCost >>> 16) + stopCost;
     }
 
     private byte[][][] allocateCoeffByteBuffer(int channels, int width) {
@@ -121,35 +229,132 @@ public class CoeffWriter {
 
 
     public byte[] encodeCoeffsHuffman(int[][] perChannelCoeffs) {
-        try {
-            int channels = perChannelCoeffs.length;
-            int width = perChannelCoeffs[0].length;
-            byte[][][] coeffBytes = allocateCoeffByteBuffer(channels, width);
+        encodeCoeffs(perChannelCoeffs);
+        return baos.toByteArray();
+    }
 
-            writer.flush();
-            baos.reset();
-            huffCoder.setWriter(writer);
+    /**
+     * Huffman-codes the quantized coefficients of all channels into the frame
+     * buffer and returns the number of bytes, see writeEncodedCoeffs(). Each
+     * coefficient is zig-zag coded, range checked and split into the LSB and MSB
+     * planes in a single pass that also tracks the last non-zero byte of both
+     * planes, so the Huffman coder needs no scan of its own.
+     */
+    public int encodeCoeffs(int[][] perChannelCoeffs) {
+        int channels = perChannelCoeffs.length;
+        int width = perChannelCoeffs[0].length;
+        byte[][][] coeffBytes = allocateCoeffByteBuffer(channels, width);
+
+        startFrame();
+        if (PARALLEL && channels > 1 && channels * width >= PARALLEL_MIN_LINES) {
+            encodeChannelsParallel(perChannelCoeffs, coeffBytes);
+        } else {
+            for (int c = 0; c < channels; c++) {
+                encodeChannel(huffCoder, perChannelCoeffs[c], coeffBytes[c]);
+            }
+        }
+        return endFrame();
+    }
 
-            for (int c = 0; c < perChannelCoeffs.length; c++) {
-                int[] coeffs = perChannelCoeffs[c];
-                byte[][] byteBuf = coeffBytes[c];
+    /**
+     * Packs one channel into its planes and Huffman-codes them with the given
+     * coder, returns the number of bits written.
+     */
+    private static long encodeChannel(HuffCoder coder, int[] coeffs, byte[][] planes) {
+        byte[] lsbs = planes[0];
+        byte[] msbs = planes[1];
 
-                if (!checkCoeffsInRange(coeffs)) {
-                    throw new RuntimeException("coeffs > 16 bits");
-                }
+        int lastLsb = 0;
+        int lastMsb = 0;
+        for (int i = 0; i < coeffs.length; i++) {
+            int coeff = ZigZag.encodeZigZag(coeffs[i]);
+            if ((coeff & 0xFFFF0000) != 0) {
+                throw new RuntimeException("coeffs > 16 bits");
+            }
+            lsbs[i] = (byte) coeff;
+            msbs[i] = (byte) (coeff >> 8);
+            if ((coeff & 0xFF) != 0) {
+                lastLsb = i;
+            }
+            if (coeff > 0xFF) {
+                lastMsb = i;
+            }
+        }
 
-                // pack LSB
-                packCoeffsSingleByte(coeffs, byteBuf[0], 0, 0);
+        coder.setContext(0);
+        long bits = coder.writeByteSymbols(lsbs, lastLsb);
+        coder.setContext(1);
+        bits += coder.writeByteSymbols(msbs, lastMsb);
+        return bits;
+    }
 
-                // pack MSB
-                packCoeffsSingleByte(coeffs, byteBuf[1], 8, 0);
+    /**
+     * Codes each channel into a bit buffer of its own, in parallel, and splices
+     * the buffers into the frame. Channels are not byte-aligned within a frame,
+     * so each buffer is appended with its exact bit count.
+     */
+    private void encodeChannelsParallel(int[][] perChannelCoeffs, byte[][][] coeffBytes) {
+        int channels = perChannelCoeffs.length;
+        if (channelCoders == null || channelCoders.length < channels) {
+            ChannelCoder[] coders = new ChannelCoder[channels];
+            for (int c = 0; c < channels; c++) {
+                coders[c] = (channelCoders != null && c < channelCoders.length) ? channelCoders[c]
+                        : new ChannelCoder(huffLengths);
             }
+            channelCoders = coders;
+        }
+
+        IntStream.range(0, channels).parallel().forEach(c -> {
+            ChannelCoder cc = channelCoders[c];
+            cc.baos.reset();
+            cc.bits = encodeChannel(cc.coder, perChannelCoeffs[c], coeffBytes[c]);
+            cc.writer.flush();
+        });
+
+        for (int c = 0; c < channels; c++) {
+            ChannelCoder cc = channelCoders[c];
+            writer.writeBits(cc.baos.toByteArray(), cc.bits);
+        }
+    }
 
-            huffCoder.writeByteSymbols(coeffBytes);
+    /**
+     * Byte planes (per channel LSB and MSB) of the last encodeCoeffs() call.
+     */
+    public byte[][][] getCoeffBytes() {
+        return coeffByteBuf;
+    }
 
-            writer.flush();
-            return baos.toByteArray();
+    /**
+     * Huffman-codes already packed byte planes (per channel LSB and MSB) into
+     * the frame buffer and returns the number of bytes.
+     */
+    public int encodePlanes(byte[][][] coeffBytes) {
+        startFrame();
+        huffCoder.writeByteSymbols(coeffBytes);
+        return endFrame();
+    }
+
+    private void startFrame() {
+        writer.flush();
+        baos.reset();
+        huffCoder.setWriter(writer);
+    }
+
+    private int endFrame() {
+        writer.flush();
+        return baos.size();
+    }
 
+    /**
+     * Writes the frame buffer filled by the last encodeCoeffs() or encodePlanes() call.
+     */
+    public void writeEncodedCoeffs() {
+        try {
+            baos.writeTo(os);
+            if (flushInterval > 0 && ++unflushedFrames >= flushInterval) {
+                os.flush();
+                unflushedFrames = 0;
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -158,7 +363,17 @@ public class CoeffWriter {
     public void writeData(byte[] data) {
         try {
             os.write(data);
-            os.flush();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the content of the buffer without copying it to an array first.
+     */
+    public void writeData(ByteArrayOutputStream data) {
+        try {
+            data.writeTo(os);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -183,20 +398,40 @@ public class CoeffWriter {
         }
     }
 
+    /**
+     * Optimal code lengths for the symbols coded so far, per context.
+     */
+    public int[][] getOptimizedHuffmanLengths() {
+        int[][] lengths = new int[huffCoder.getContextsSize()][];
+        for (int ctx = 0; ctx < lengths.length; ctx++) {
+            int[] frequencies = getContextStats(ctx);
+            lengths[ctx] = Huffman.getLimitedHuffmanLengths(frequencies, StreamHeader.MAX_HUFFMAN_LENGTH);
+        }
+        return lengths;
+    }
+
+    /**
+     * Symbol frequencies of a context, summed over the serial and the per-channel coders.
+     */
+    private int[] getContextStats(int ctx) {
+        int[] frequencies = huffCoder.getContextStats(ctx).clone();
+        for (int c = 0; channelCoders != null && c < channelCoders.length; c++) {
+            int[] channelFrequencies = channelCoders[c].coder.getContextStats(ctx);
+            for (int sym = 0; sym < frequencies.length; sym++) {
+                frequencies[sym] += channelFrequencies[sym];
+            }
+        }
+        return frequencies;
+    }
+
     public void computeHuffmanLengths() {
 
         for (int ctx = 0; ctx < 2; ctx++) {
             System.out.println("Context " + ctx);
-            int[] frequencies = huffCoder.getContextStats(ctx);
-
-            int[] huffLengths = null;
-            do {
-                smoothenFrequencies(frequencies);
-                huffLengths = Huffman.getHuffmanLengthsByFrequencies(frequencies);
-                if(huffLengths[255] > 16) {
-                    frequencies[255]++;
-                }
-            } while(huffLengths[255] > 16);
+            int[] frequencies = getContextStats(ctx);
+
+            smoothenFrequencies(frequencies);
+            int[] huffLengths = Huffman.getLimitedHuffmanLengths(frequencies, StreamHeader.MAX_HUFFMAN_LENGTH);
 
 
             System.out.print("{");
@@ -25,8 +25,8 @@ SOFTWARE.
 package de.maikmerten.toycodec.bitstream;
 
 import de.maikmerten.toycodec.io.BitInputStream;
-import de.maikmerten.toycodec.io.BitOutputStream;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
 public class QuantInfo {
@@ -86,14 +86,14 @@ public class QuantInfo {
     }
 
     public void writeHeader(OutputStream os) {
-        BitOutputStream w = new BitOutputStream(os);
-
+        // the packed indexes fill whole bytes, no bit writer needed
         byte[] quantIdxBytes = new byte[(quantIndexes.length * 6) / 8];
         packQuantIdxData(quantIndexes, quantIdxBytes);
-        w.write(quantIdxBytes);
-
-        w.setCloseOutputStream(false);
-        w.close();
+        try {
+            os.write(quantIdxBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public static QuantInfo fromInputStream(BitInputStream bis, int bands) {
@@ -36,6 +36,11 @@ import java.nio.charset.StandardCharsets;
 
 public class StreamHeader {
 
+    // width is transmitted in units of 16 lines in a single byte
+    public static final int MAX_WIDTH = 255 * 16;
+    // Huffman code lengths are transmitted as 4 bit values (length - 1)
+    public static final int MAX_HUFFMAN_LENGTH = 16;
+
     private String fourCC = "TOY1";
     private int sampleRate;
     private int preRoll;
@@ -53,6 +58,9 @@ public class StreamHeader {
         if(((width / 16) * 16) != width) {
             throw new IllegalArgumentException("width needs to be multiples of 16");
         }
+        if(width < 16 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("width needs to range from 16 to " + MAX_WIDTH);
+        }
 
         this.sampleRate = sampleRate;
         this.channels = channels;
@@ -67,11 +75,7 @@ public class StreamHeader {
         this.quantizers = new int[quantizers.length];
         System.arraycopy(quantizers, 0, this.quantizers, 0, quantizers.length);
 
-        this.huffmanLengths = new int[huffmanLengths.length][];
-        for(int i = 0; i < huffmanLengths.length; i++) {
-            this.huffmanLengths[i] = new int[huffmanLengths[i].length];
-            System.arraycopy(huffmanLengths[i], 0, this.huffmanLengths[i], 0, huffmanLengths[i].length);
-        }
+        setHuffmanLengths(huffmanLengths);
 
         this.bandWidths = new int[bandWidths.length];
         System.arraycopy(bandWidths, 0, this.bandWidths, 0, bandWidths.length);
@@ -129,6 +133,14 @@ public class StreamHeader {
         return this.huffmanLengths;
     }
 
+    public void setHuffmanLengths(int[][] huffmanLengths) {
+        this.huffmanLengths = new int[huffmanLengths.length][];
+        for(int i = 0; i < huffmanLengths.length; i++) {
+            this.huffmanLengths[i] = new int[huffmanLengths[i].length];
+            System.arraycopy(huffmanLengths[i], 0, this.huffmanLengths[i], 0, huffmanLengths[i].length);
+        }
+    }
+
     private byte[] packHuffmanLengths(int[][] lengths) {
         if(lengths.length != 2 || lengths[0].length != 257 || lengths[1].length != 257) {
             throw new IllegalArgumentException("unexpected size of Huffman length data");
@@ -137,7 +149,7 @@ public class StreamHeader {
         for(int i = 0; i < packed.length; i++) {
             int len0 = lengths[0][i];
             int len1 = lengths[1][i];
-            if(len0 < 1 || len0 > 16 || len1 < 1 || len1 > 16) {
+            if(len0 < 1 || len0 > MAX_HUFFMAN_LENGTH || len1 < 1 || len1 > MAX_HUFFMAN_LENGTH) {
                 throw new RuntimeException("Huffman code lengths illegal len0: " + len0 + " len1:" + len1);
             }
             packed[i] = (byte)(((len0 - 1) << 4) | (len1 - 1));
@@ -90,6 +90,17 @@ public class Bands {
         return this.skipMap;
     }
 
+    /**
+     * Number of leading lines that are not skipped, all lines from here on are.
+     */
+    public int getCodedLines() {
+        int lines = skipMap.length;
+        while (lines > 0 && skipMap[lines - 1]) {
+            lines--;
+        }
+        return lines;
+    }
+
     public static Bands fromBandWidths(int[] bandWidths) {
         int width = 0;
         for(int bandWidth : bandWidths) {
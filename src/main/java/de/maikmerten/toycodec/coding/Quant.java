@@ -24,9 +24,12 @@ SOFTWARE.
 
 package de.maikmerten.toycodec.coding;
 
+import java.util.Arrays;
+
 public class Quant {
 
     private final float scale;
+    private final int intScale;
     private final int[] quantizers;
 
     private int[] quantMap;
@@ -39,6 +42,7 @@ public class Quant {
         }
 
         this.scale = scale * 1f;
+        this.intScale = scale;
         this.quantizers = new int[quantizers.length + 1];
         System.arraycopy(quantizers, 0, this.quantizers, 0, quantizers.length);
         this.quantizers[quantizers.length] = 9999999;
@@ -48,12 +52,28 @@ public class Quant {
     }
   
 
+    /**
+     * Coefficient scale for a transform width, relative to 512 at width 256.
+     * MDCT coefficients are not normalized, noise-like content grows with the
+     * square root of the width, so quantizer indexes keep their meaning.
+     */
+    public static int scaleForWidth(int width) {
+        return (int) Math.round(512 * Math.sqrt(256.0 / width));
+    }
+
     public void quantize(float[] coeffs, int[] quantCoeffs, int[] quantIdx) {
+        quantize(coeffs, quantCoeffs, quantIdx, 0, coeffs.length);
+    }
+
+    /**
+     * Quantizes only the lines from "start" (inclusive) to "end" (exclusive).
+     */
+    public void quantize(float[] coeffs, int[] quantCoeffs, int[] quantIdx, int start, int end) {
         if(quantIdx.length != 16) {
             throw new IllegalArgumentException("expected length of quantIdx: 16");
         }
 
-        for(int i = 0; i < coeffs.length; i++) {
+        for(int i = start; i < end; i++) {
             int bandIdx = this.quantMap[i];
             int qidx = quantIdx[bandIdx];
 
@@ -71,6 +91,23 @@ public class Quant {
         }
     }
 
+    /**
+     * Reconstructs only the lines from "start" (inclusive) to "end" (exclusive).
+     */
+    public void unquantize(int[] quantCoeffs, float[] coeffs, int[] quantIdx, int start, int end) {
+        if(quantIdx.length != 16) {
+            throw new IllegalArgumentException("expected length of quantIdx: 16");
+        }
+
+        for(int i = start; i < end; i++) {
+            int bandIdx = this.quantMap[i];
+            int qidx = quantIdx[bandIdx];
+            int qc = quantCoeffs[i];
+            qc *= this.quantizers[qidx];
+            coeffs[i] = (qc / scale);
+        }
+    }
+
     public void unquantize(int[] quantCoeffs, float[] coeffs, int[] quantIdx) {
         if(quantIdx.length != 16) {
             throw new IllegalArgumentException("expected length of quantIdx: 16");
@@ -85,6 +122,57 @@ public class Quant {
             coeffs[i] = (qc / scale);
         }
     }
+
+    /**
+     * Fused unpacking and reconstruction: reads the zig-zag coded LSB and MSB
+     * planes (coeffBytes[0] and [1]) directly and reconstructs the first "lines"
+     * coefficients, the remaining ones are set to zero.
+     */
+    public void unquantize(byte[][] coeffBytes, float[] coeffs, int[] quantIdx, int lines) {
+        if(quantIdx.length != 16) {
+            throw new IllegalArgumentException("expected length of quantIdx: 16");
+        }
+
+        byte[] lsbs = coeffBytes[0];
+        byte[] msbs = coeffBytes[1];
+        for(int i = 0; i < lines; i++) {
+            int qidx = quantIdx[this.quantMap[i]];
+
+            int qc = ZigZag.decodeZigZag(((msbs[i] & 0xFF) << 8) | (lsbs[i] & 0xFF));
+            qc *= this.quantizers[qidx];
+            coeffs[i] = (qc / scale);
+        }
+        Arrays.fill(coeffs, lines, coeffs.length, 0f);
+    }
+
+    /**
+     * Fused unpacking and integer-only reconstruction, see unquantize(byte[][], float[], int[], int).
+     * The reconstructed coefficients are rounded to fixed-point values with
+     * "fracBits" fractional bits.
+     */
+    public void unquantize(byte[][] coeffBytes, int[] coeffs, int[] quantIdx, int lines, int fracBits) {
+        if(quantIdx.length != 16) {
+            throw new IllegalArgumentException("expected length of quantIdx: 16");
+        }
+
+        byte[] lsbs = coeffBytes[0];
+        byte[] msbs = coeffBytes[1];
+        long roundOffset = intScale / 2;
+        for(int i = 0; i < lines; i++) {
+            int qidx = quantIdx[this.quantMap[i]];
+
+            // harshest quantizer always quantizes to zero
+            if(qidx >= this.quantizers.length - 1) {
+                coeffs[i] = 0;
+                continue;
+            }
+
+            int qc = ZigZag.decodeZigZag(((msbs[i] & 0xFF) << 8) | (lsbs[i] & 0xFF));
+            long scaled = ((long) qc * this.quantizers[qidx]) << fracBits;
+            coeffs[i] = (int) Math.floorDiv(scaled + roundOffset, intScale);
+        }
+        Arrays.fill(coeffs, lines, coeffs.length, 0);
+    }
  
 
 }
\ No newline at end of file
@@ -24,38 +24,158 @@ SOFTWARE.
 
 package de.maikmerten.toycodec.coding.huffman;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import de.maikmerten.toycodec.io.BitInputStream;
 import de.maikmerten.toycodec.io.BitOutputStream;
-import java.util.HashMap;
-import java.util.Map;
 
 public class HuffCoder {
 
+    // code prefix length resolved by the primary decode table
+    private static final int PRIMARY_BITS = 10;
+    // bits peeked for multi-symbol decoding and max. symbols per lookup, see buildMultiSymbolTable()
+    private static final int MULTI_BITS = 12;
+    private static final int MULTI_SYMBOLS = 12;
+
     private BitOutputStream writer;
     private BitInputStream bitInput;
     private int currentCtx;
     private Context[] contexts;
 
-    private class Context {
-        private int[] codetable;
-        private final Map<Integer, Integer> codemap = new HashMap<>();
-        private int stopSymbol;
-        private int[] frequencies;
+    private static final ConcurrentMap<LengthsKey, CodeTablesRef> tableCache = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<CodeTables> tableQueue = new ReferenceQueue<>();
+
+    /**
+     * Code and decode tables of one context. Immutable once built, so they are
+     * shared between all coders using the same code lengths.
+     */
+    private static final class CodeTables {
+        private final int[] codetable;
+        private final int stopSymbol;
+
+        // decode tables, see buildPrimaryTable() and buildMultiSymbolTable()
+        private final int maxLength;
+        private final int primaryBits;
+        private final int[] primary;
+        private final int[] secondary;
+        private final int[] multi;
+        private final byte[] multiSymbols;
+
+        private CodeTables(int[] lengths) {
+            this.codetable = buildCanonicalCodeTable(lengths);
+            this.stopSymbol = lengths.length - 1;
+            this.maxLength = getMaxLength(codetable);
+            this.primaryBits = Math.min(maxLength, PRIMARY_BITS);
+            this.primary = buildPrimaryTable(codetable, primaryBits, maxLength);
+            this.secondary = buildSecondaryTable(codetable, primary, primaryBits, maxLength);
+            this.multiSymbols = new byte[(1 << MULTI_BITS) * MULTI_SYMBOLS];
+            this.multi = buildMultiSymbolTable(this, multiSymbols);
+        }
+    }
+
+    /**
+     * Cache key holding a copy of the code lengths of one context.
+     */
+    private static final class LengthsKey {
+        private final int[] lengths;
+        private final int hash;
+
+        private LengthsKey(int[] lengths) {
+            this.lengths = lengths.clone();
+            this.hash = Arrays.hashCode(lengths);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof LengthsKey) && Arrays.equals(lengths, ((LengthsKey) o).lengths);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Softly referenced cache entry: tables of code lengths no coder uses any
+     * more are given back under memory pressure.
+     */
+    private static class CodeTablesRef extends SoftReference<CodeTables> {
+        private final LengthsKey key;
+
+        private CodeTablesRef(CodeTables tables, LengthsKey key) {
+            super(tables, tableQueue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Per-coder state of a context: the shared tables plus symbol statistics.
+     */
+    private static class Context {
+        private final int[] codetable;
+        private final int stopSymbol;
+        private final int[] frequencies;
+
+        private final int maxLength;
+        private final int primaryBits;
+        private final int[] primary;
+        private final int[] secondary;
+        private final int[] multi;
+        private final byte[] multiSymbols;
+
+        private Context(CodeTables tables) {
+            this.codetable = tables.codetable;
+            this.stopSymbol = tables.stopSymbol;
+            this.frequencies = new int[tables.codetable.length];
+            this.maxLength = tables.maxLength;
+            this.primaryBits = tables.primaryBits;
+            this.primary = tables.primary;
+            this.secondary = tables.secondary;
+            this.multi = tables.multi;
+            this.multiSymbols = tables.multiSymbols;
+        }
+    }
+
+    private static void expungeStaleEntries() {
+        CodeTablesRef ref;
+        while ((ref = (CodeTablesRef) tableQueue.poll()) != null) {
+            tableCache.remove(ref.key, ref);
+        }
+    }
+
+    private static CodeTables getCodeTables(int[] lengths) {
+        expungeStaleEntries();
+
+        LengthsKey key = new LengthsKey(lengths);
+        CodeTablesRef ref = tableCache.get(key);
+        CodeTables tables = (ref != null) ? ref.get() : null;
+        if (tables != null) {
+            return tables;
+        }
+
+        // build at most once per set of lengths, keep a strong reference until returned
+        CodeTables[] result = new CodeTables[1];
+        tableCache.compute(key, (k, old) -> {
+            CodeTables t = (old != null) ? old.get() : null;
+            if (t == null) {
+                t = new CodeTables(k.lengths);
+                old = new CodeTablesRef(t, k);
+            }
+            result[0] = t;
+            return old;
+        });
+        return result[0];
     }
 
     public HuffCoder(int[][] lengths) {
         contexts = new Context[lengths.length];
         for (int ctx = 0; ctx < lengths.length; ctx++) {
-            List<Integer> lenList = new ArrayList<>();
-            contexts[ctx] = new Context();
-            for (int len : lengths[ctx]) {
-                lenList.add(len);
-            }
-            buildCanonicalCodeTable(contexts[ctx], lenList);
+            contexts[ctx] = new Context(getCodeTables(lengths[ctx]));
         }
     }
 
@@ -105,19 +225,17 @@ public class HuffCoder {
         return bits;
     }
 
-    private void buildCanonicalCodeTable(Context ctx, List<Integer> lengths) {
+    private static int[] buildCanonicalCodeTable(int[] lengths) {
 
-        ctx.codetable = new int[lengths.size()];
-        ctx.frequencies = new int[lengths.size()];
-        ctx.stopSymbol = lengths.size() - 1;
+        int[] codetable = new int[lengths.length];
 
         // combine length and symbol, order first by length, then symbol order
-        List<Integer> symbolsAndLengths = new ArrayList<>(lengths.size());
-        for (int sym = 0; sym < lengths.size(); sym++) {
-            int len = lengths.get(sym);
-            symbolsAndLengths.add((len << 16) | sym);
+        int[] symbolsAndLengths = new int[lengths.length];
+        for (int sym = 0; sym < lengths.length; sym++) {
+            int len = lengths[sym];
+            symbolsAndLengths[sym] = (len << 16) | sym;
         }
-        Collections.sort(symbolsAndLengths);
+        Arrays.sort(symbolsAndLengths);
 
         int currlen = 0;
         int code = 0;
@@ -127,16 +245,125 @@ public class HuffCoder {
 
             code <<= (len - currlen);
             currlen = len;
-            ctx.codetable[sym] = (len << 24) | code;
+            codetable[sym] = (len << 24) | code;
             code++;
         }
 
-        // build code map (code to symbol)
-        ctx.codemap.clear();
-        for (int sym = 0; sym < ctx.codetable.length; sym++) {
-            ctx.codemap.put(ctx.codetable[sym], sym);
+        return codetable;
+    }
+
+    private static int getMaxLength(int[] codetable) {
+        int maxLength = 0;
+        for (int code : codetable) {
+            maxLength = Math.max(maxLength, (code >> 24) & 0xFF);
         }
+        if (maxLength > 24) {
+            throw new IllegalArgumentException("Huffman code lengths above 24 bits are not supported");
+        }
+        return maxLength;
+    }
 
+    /**
+     * Codes of up to primaryBits bits are resolved with a single lookup of the
+     * next primaryBits bits. Entries hold (symbol << 5) | length, zero marks an
+     * invalid code. For longer codes the entry holds the complement of the offset
+     * of a secondary table, which is indexed by the remaining bits up to the
+     * maximum code length.
+     */
+    private static int[] buildPrimaryTable(int[] codetable, int primaryBits, int maxLength) {
+        int secondaryBits = maxLength - primaryBits;
+        int[] primary = new int[1 << primaryBits];
+        int secondaryTables = 0;
+        for (int sym = 0; sym < codetable.length; sym++) {
+            int len = (codetable[sym] >> 24) & 0xFF;
+            int code = codetable[sym] & 0xFFFFFF;
+            if (len <= primaryBits) {
+                int start = code << (primaryBits - len);
+                for (int i = 0; i < (1 << (primaryBits - len)); i++) {
+                    primary[start + i] = (sym << 5) | len;
+                }
+            } else {
+                int prefix = code >> (len - primaryBits);
+                if (primary[prefix] == 0) {
+                    primary[prefix] = ~(secondaryTables << secondaryBits);
+                    secondaryTables++;
+                }
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * Secondary tables for the codes longer than primaryBits, see buildPrimaryTable().
+     */
+    private static int[] buildSecondaryTable(int[] codetable, int[] primary, int primaryBits, int maxLength) {
+        int secondaryTables = 0;
+        for (int entry : primary) {
+            if (entry < 0) {
+                secondaryTables++;
+            }
+        }
+
+        int[] secondary = new int[secondaryTables << (maxLength - primaryBits)];
+        for (int sym = 0; sym < codetable.length; sym++) {
+            int len = (codetable[sym] >> 24) & 0xFF;
+            int code = codetable[sym] & 0xFFFFFF;
+            if (len > primaryBits) {
+                int offset = ~primary[code >> (len - primaryBits)];
+                int suffix = code & ((1 << (len - primaryBits)) - 1);
+                int start = offset + (suffix << (maxLength - len));
+                for (int i = 0; i < (1 << (maxLength - len)); i++) {
+                    secondary[start + i] = (sym << 5) | len;
+                }
+            }
+        }
+        return secondary;
+    }
+
+    /**
+     * Decode entry (see buildPrimaryTable()) for a code starting at the most
+     * significant of the given maxLength bits.
+     */
+    private static int lookupEntry(CodeTables ctx, int bits) {
+        int secondaryBits = ctx.maxLength - ctx.primaryBits;
+        int entry = ctx.primary[bits >>> secondaryBits];
+        if (entry < 0) {
+            entry = ctx.secondary[~entry + (bits & ((1 << secondaryBits) - 1))];
+        }
+        return entry;
+    }
+
+    /**
+     * For every value of the next MULTI_BITS bits, the run of up to MULTI_SYMBOLS
+     * symbols whose codes lie completely within these bits. Entries hold
+     * (count << 8) | bits, the symbols are stored at index * MULTI_SYMBOLS in
+     * multiSymbols. Runs end before the STOP symbol, which is left to the
+     * single-symbol decoder, as are codes longer than the remaining bits. Only
+     * reads the single-symbol decode tables of ctx.
+     */
+    private static int[] buildMultiSymbolTable(CodeTables ctx, byte[] multiSymbols) {
+        int[] multi = new int[1 << MULTI_BITS];
+        for (int idx = 0; idx < multi.length; idx++) {
+            int pos = 0;
+            int count = 0;
+            while (count < MULTI_SYMBOLS && pos < MULTI_BITS) {
+                // next maxLength bits from the current position, zero-padded
+                int window = (idx << pos) & ((1 << MULTI_BITS) - 1);
+                int bits = (ctx.maxLength <= MULTI_BITS) ? window >>> (MULTI_BITS - ctx.maxLength)
+                        : window << (ctx.maxLength - MULTI_BITS);
+                int entry = lookupEntry(ctx, bits);
+                int len = entry & 0x1F;
+                int sym = entry >>> 5;
+                if (len == 0 || len > MULTI_BITS - pos || sym >= ctx.stopSymbol) {
+                    break;
+                }
+                multiSymbols[idx * MULTI_SYMBOLS + count] = (byte) sym;
+                count++;
+                pos += len;
+            }
+            multi[idx] = (count << 8) | pos;
+        }
+        return multi;
     }
 
     public void printCodeTable() {
@@ -162,43 +389,55 @@ public class HuffCoder {
         ctx.frequencies[sym]++;
         int code = ctx.codetable[sym];
         int len = (code >> 24) & 0xFF;
-        code &= 0xFFFFFF;
-
-        int bitmask = (1 << len - 1);
-        while (bitmask > 0) {
-            writer.writeBit((code & bitmask) > 0 ? 1 : 0);
-            bitmask >>= 1;
-        }
+        writer.writeBits(code, len);
         return len;
     }
 
     public int readSymbol() {
         Context ctx = contexts[currentCtx];
-        int bits = bitInput.readBit();
-        int len = 1;
-        while (len < 24) {
-            int code = (len << 24) | bits;
-            Integer sym = ctx.codemap.get(code);
-            if (sym != null) {
-                return sym;
-            }
-            bits = (bits << 1) | bitInput.readBit();
-            len++;
+        int maxLength = ctx.maxLength;
+        int bits = bitInput.peekBits(maxLength);
+        int secondaryBits = maxLength - ctx.primaryBits;
+
+        int entry = ctx.primary[bits >>> secondaryBits];
+        if (entry < 0) {
+            entry = ctx.secondary[~entry + (bits & ((1 << secondaryBits) - 1))];
+        }
+        int len = entry & 0x1F;
+        if (len == 0) {
+            throw new RuntimeException("could not decode byte from Huffman bitstream");
         }
-        throw new RuntimeException("could not decode byte from Huffman bitstream");
+        bitInput.skipBits(len);
+        return entry >>> 5;
     }
 
     public int writeByteSymbols(byte[] symbols) {
-        Context ctx = this.contexts[currentCtx];
-        int bits = 0;
         int lastidx = 0;
         for (int i = 0; i < symbols.length; i++) {
             if (symbols[i] != 0) {
                 lastidx = i;
             }
         }
+        return writeByteSymbols(symbols, lastidx);
+    }
+
+    /**
+     * Writes the symbols up to lastidx, which the caller already determined as
+     * the last non-zero symbol (or 0), followed by STOP if the array continues.
+     */
+    public int writeByteSymbols(byte[] symbols, int lastidx) {
+        Context ctx = this.contexts[currentCtx];
+        int[] codetable = ctx.codetable;
+        int[] frequencies = ctx.frequencies;
+        BitOutputStream writer = this.writer;
+        int bits = 0;
         for (int i = 0; i < symbols.length && i <= lastidx; i++) {
-            bits += writeSymbol(symbols[i] & 0xFF);
+            int sym = symbols[i] & 0xFF;
+            frequencies[sym]++;
+            int code = codetable[sym];
+            int len = code >>> 24;
+            writer.writeBits(code, len);
+            bits += len;
         }
 
         if (lastidx < symbols.length - 1) {
@@ -231,9 +470,23 @@ public class HuffCoder {
             bitInput.resetBits();
         }
 
+        int[] multi = ctx.multi;
+        byte[] multiSymbols = ctx.multiSymbols;
         int bytes = 0;
         int i = 0;
         while (i < array.length) {
+            // several short codes at once, unless the run would overshoot the array
+            int peek = bitInput.peekBits(MULTI_BITS);
+            int entry = multi[peek];
+            int count = entry >>> 8;
+            if (count > 0 && count <= array.length - i) {
+                bitInput.skipBits(entry & 0xFF);
+                System.arraycopy(multiSymbols, peek * MULTI_SYMBOLS, array, i, count);
+                i += count;
+                bytes += count;
+                continue;
+            }
+
             int sym = readSymbol();
             if (sym < ctx.stopSymbol) {
                 array[i] = (byte) (sym & 0xFF);
@@ -270,6 +523,27 @@ public class HuffCoder {
         return bytes;
     }
 
+    /**
+     * Like readByteSymbols(byte[][][], boolean), additionally reporting per channel
+     * how many leading lines may be non-zero (everything after STOP is zero).
+     */
+    public int readByteSymbols(byte[][][] array3d, int[] lines, boolean startOnByteBoundary) {
+        int bytes = 0;
+        for (int c = 0; c < array3d.length; c++) {
+            byte[][] array2d = array3d[c];
+            int channelLines = 0;
+            for (int ctx = 0; ctx < array2d.length; ctx++) {
+                setContext(ctx);
+                int read = readByteSymbols(array2d[ctx], startOnByteBoundary);
+                startOnByteBoundary = false;
+                channelLines = Math.max(channelLines, read);
+                bytes += read;
+            }
+            lines[c] = channelLines;
+        }
+        return bytes;
+    }
+
     public static void main(String[] args) {
         HuffCoder hc = new HuffCoder(HuffTables.COEFFS);
         hc.printCodeTable();
@@ -25,6 +25,7 @@ SOFTWARE.
 package de.maikmerten.toycodec.coding.huffman;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -107,6 +108,80 @@ public class Huffman {
         return getHuffmanLengthsByFrequencies(freqs);
     }
 
+    /**
+     * Optimal code lengths of at most maxLength bits, computed with the
+     * package-merge algorithm in O(n * maxLength) after sorting the symbols by
+     * frequency. Every symbol gets a code, including those of frequency zero.
+     */
+    public static int[] getLimitedHuffmanLengths(int[] frequencies, int maxLength) {
+        int n = frequencies.length;
+        if (maxLength < 1 || maxLength > 30 || n > (1 << maxLength)) {
+            throw new IllegalArgumentException("cannot code " + n + " symbols with at most " + maxLength + " bits");
+        }
+        int[] lengths = new int[n];
+        if (n == 1) {
+            lengths[0] = 1;
+        }
+        if (n <= 1) {
+            return lengths;
+        }
+
+        // symbols ordered by frequency, ties broken by symbol
+        long[] sortKeys = new long[n];
+        for (int sym = 0; sym < n; sym++) {
+            if (frequencies[sym] < 0) {
+                throw new IllegalArgumentException("negative frequency for symbol " + sym);
+            }
+            sortKeys[sym] = ((long) frequencies[sym] << 32) | sym;
+        }
+        Arrays.sort(sortKeys);
+        long[] leafWeights = new long[n];
+        for (int i = 0; i < n; i++) {
+            leafWeights[i] = sortKeys[i] >>> 32;
+        }
+
+        // list of each level: the sorted leaves merged with the pairs ("packages")
+        // of the level below, leaves first on equal weight
+        boolean[][] isLeaf = new boolean[maxLength][];
+        long[] weights = leafWeights;
+        isLeaf[0] = new boolean[n];
+        Arrays.fill(isLeaf[0], true);
+        for (int level = 1; level < maxLength; level++) {
+            int packages = weights.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] leaf = new boolean[n + packages];
+            int l = 0;
+            int p = 0;
+            for (int i = 0; i < merged.length; i++) {
+                long packageWeight = (p < packages) ? weights[2 * p] + weights[2 * p + 1] : Long.MAX_VALUE;
+                if (l < n && leafWeights[l] <= packageWeight) {
+                    merged[i] = leafWeights[l++];
+                    leaf[i] = true;
+                } else {
+                    merged[i] = packageWeight;
+                    p++;
+                }
+            }
+            weights = merged;
+            isLeaf[level] = leaf;
+        }
+
+        // the 2n - 2 cheapest items of the top level make up the code. Leaves
+        // taken on a level are a prefix of the sorted symbols and each adds one
+        // bit to their length, packages expand to twice as many items below.
+        int items = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && items > 0; level--) {
+            int leaves = 0;
+            for (int i = 0; i < items; i++) {
+                if (isLeaf[level][i]) {
+                    lengths[(int) sortKeys[leaves++]]++;
+                }
+            }
+            items = 2 * (items - leaves);
+        }
+
+        return lengths;
+    }
 
     public static void main(String[] args) {
 
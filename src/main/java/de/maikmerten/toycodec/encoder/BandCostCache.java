@@ -0,0 +1,176 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.maikmerten.toycodec.encoder;
+
+import java.util.Arrays;
+
+import de.maikmerten.toycodec.bitstream.CoeffWriter;
+import de.maikmerten.toycodec.coding.Bands;
+import de.maikmerten.toycodec.coding.Quant;
+import de.maikmerten.toycodec.coding.ZigZag;
+
+/**
+ * Per-band cache for the quantizer search of one channel in one frame. The
+ * quantized lines, their bit cost and their noise are kept per band together
+ * with the quantizer index they were computed for, so after a quantizer change
+ * only the affected bands are recomputed.
+ *
+ * Bit costs are packed like CoeffWriter.getCostTable() (LSB context in the lower,
+ * MSB context in the upper 16 bits). Besides the full cost of a band, the cost
+ * up to its last non-zero LSB and MSB byte is kept, so the STOP position of
+ * both planes follows from the last band with non-zero bytes.
+ */
+public class BandCostCache {
+
+    private final Quant quant;
+    private final boolean[] skipMap;
+    private final int[] costTable;
+    private final int stopCost;
+
+    // lines of band b range from bandStart[b] to bandStart[b + 1]
+    private final int[] bandStart;
+    private final int[] cachedIdx;
+    private final int[] bandCost;
+    private final int[] lsbCost;
+    private final int[] msbCost;
+    private final boolean[] hasLsb;
+    private final boolean[] hasMsb;
+    private final float[] noise;
+    private final boolean[] noiseValid;
+
+    private final float[] unquantized;
+    private float[] coeffs;
+    private int[] quantCoeffs;
+    private int[] quantIdx;
+
+    public BandCostCache(Quant quant, Bands bands, CoeffWriter coeffWriter) {
+        this.quant = quant;
+        this.skipMap = bands.getSkipMap();
+        this.costTable = coeffWriter.getCostTable();
+        this.stopCost = coeffWriter.getStopCost();
+
+        int[] bandWidths = bands.getBandWidths();
+        int bandCount = bandWidths.length;
+        this.bandStart = new int[bandCount + 1];
+        for (int b = 0; b < bandCount; b++) {
+            bandStart[b + 1] = bandStart[b] + bandWidths[b];
+        }
+        if (bandStart[bandCount] > CoeffWriter.MAX_COST_LINES) {
+            throw new IllegalArgumentException("at most " + CoeffWriter.MAX_COST_LINES + " coefficients supported");
+        }
+
+        this.cachedIdx = new int[bandCount];
+        this.bandCost = new int[bandCount];
+        this.lsbCost = new int[bandCount];
+        this.msbCost = new int[bandCount];
+        this.hasLsb = new boolean[bandCount];
+        this.hasMsb = new boolean[bandCount];
+        this.noise = new float[bandCount];
+        this.noiseValid = new boolean[bandCount];
+        this.unquantized = new float[bandStart[bandCount]];
+    }
+
+    /**
+     * Starts a search on new coefficients, quantized values are written to quantCoeffs.
+     */
+    public void reset(float[] coeffs, int[] quantCoeffs) {
+        this.coeffs = coeffs;
+        this.quantCoeffs = quantCoeffs;
+        Arrays.fill(cachedIdx, -1);
+    }
+
+    /**
+     * Re-quantizes the bands whose quantizer index differs from the cached one.
+     */
+    public void update(int[] quantIdx) {
+        this.quantIdx = quantIdx;
+        for (int b = 0; b < cachedIdx.length; b++) {
+            if (quantIdx[b] != cachedIdx[b]) {
+                quant.quantize(coeffs, quantCoeffs, quantIdx, bandStart[b], bandStart[b + 1]);
+                computeCost(b);
+                cachedIdx[b] = quantIdx[b];
+                noiseValid[b] = false;
+            }
+        }
+    }
+
+    private void computeCost(int band) {
+        int[] table = costTable;
+        int cost = 0;
+        boolean lsb = false;
+        boolean msb = false;
+        for (int i = bandStart[band]; i < bandStart[band + 1]; i++) {
+            int code = ZigZag.encodeZigZag(quantCoeffs[i]) & 0xFFFF;
+            cost += table[code];
+            if ((code & 0xFF) != 0) {
+                lsbCost[band] = cost;
+                lsb = true;
+            }
+            if (code > 0xFF) {
+                msbCost[band] = cost;
+                msb = true;
+            }
+        }
+        bandCost[band] = cost;
+        hasLsb[band] = lsb;
+        hasMsb[band] = msb;
+    }
+
+    /**
+     * Same result as CoeffWriter.estimateCoeffBits() for the quantized lines.
+     */
+    public long estimateBits() {
+        // the first line is always coded
+        int first = costTable[ZigZag.encodeZigZag(quantCoeffs[0]) & 0xFFFF];
+        int lsb = first;
+        int msb = first;
+        int sum = 0;
+        for (int b = 0; b < bandCost.length; b++) {
+            if (hasLsb[b]) {
+                lsb = sum + lsbCost[b];
+            }
+            if (hasMsb[b]) {
+                msb = sum + msbCost[b];
+            }
+            sum += bandCost[b];
+        }
+        return (lsb & 0xFFFF) + (msb >>> 16) + stopCost;
+    }
+
+    /**
+     * Noise of a band as computed by Noise.snr(), evaluated once per quantizer index.
+     */
+    public float noise(int band) {
+        if (!noiseValid[band]) {
+            int start = bandStart[band];
+            int end = bandStart[band + 1];
+            quant.unquantize(quantCoeffs, unquantized, quantIdx, start, end);
+            noise[band] = Noise.snr(coeffs, unquantized, skipMap, start, end);
+            noiseValid[band] = true;
+        }
+        return noise[band];
+    }
+
+}
@@ -55,4 +55,37 @@ public class Noise {
         return snr;
     }
 
+    /**
+     * Same as snr(float[], float[], int[], boolean[], int) for a band spanning
+     * the lines from "start" (inclusive) to "end" (exclusive).
+     */
+    public static float snr(float[] coeffsOriginal, float[] coeffsUnquantized, boolean[] skipMap, int start,
+            int end) {
+        float snr = 0f;
+        int count = 0;
+        float max = 0f;
+
+        for (int i = start; i < end; i++) {
+            if (skipMap[i] || coeffsOriginal[i] == 0f) {
+                continue;
+            }
+            float original = coeffsOriginal[i];
+            float original2 = original * original;
+            max = original2 > max ? original2 : max;
+
+            float unquantized = coeffsUnquantized[i];
+
+            float err = (original - unquantized);
+            snr += (err * err);
+            count++;
+        }
+
+        snr /= max;
+        if(count > 0) {
+            snr /= count;
+        }
+
+        return snr;
+    }
+
 }
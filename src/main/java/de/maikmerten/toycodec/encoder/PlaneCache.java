@@ -0,0 +1,136 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.maikmerten.toycodec.encoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Temporary file holding the frames of the first encoding pass: the frame and
+ * granule header bytes and the LSB/MSB coefficient planes of each channel.
+ * Planes are stored up to their last non-zero byte.
+ */
+public class PlaneCache {
+
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+
+    public PlaneCache() {
+        try {
+            this.file = File.createTempFile("toycodec", ".planes");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeFrame(byte[] headerBytes, byte[][][] coeffBytes) {
+        try {
+            out.writeShort(headerBytes.length);
+            out.write(headerBytes);
+            for (byte[][] channelPlanes : coeffBytes) {
+                for (byte[] plane : channelPlanes) {
+                    int length = plane.length;
+                    while (length > 0 && plane[length - 1] == 0) {
+                        length--;
+                    }
+                    out.writeShort(length);
+                    out.write(plane, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Ends the first pass, frames are then read back in the order they were written.
+     */
+    public void rewind() {
+        try {
+            out.close();
+            out = null;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Restores the planes of the next frame (zero-padded to their full width)
+     * and returns its header bytes, or null after the last frame.
+     */
+    public byte[] readFrame(byte[][][] coeffBytes) {
+        try {
+            int headerLength;
+            try {
+                headerLength = in.readUnsignedShort();
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] headerBytes = new byte[headerLength];
+            in.readFully(headerBytes);
+            for (byte[][] channelPlanes : coeffBytes) {
+                for (byte[] plane : channelPlanes) {
+                    int length = in.readUnsignedShort();
+                    in.readFully(plane, 0, length);
+                    Arrays.fill(plane, length, plane.length, (byte) 0);
+                }
+            }
+            return headerBytes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes and deletes the temporary file.
+     */
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import de.maikmerten.toycodec.Decoder;
+import de.maikmerten.toycodec.DecoderParams;
+
+/**
+ * Decodes a stream with the float and the fixed-point decoder and reports the
+ * PSNR of the fixed-point output against the float output. Exits with status 1
+ * if the PSNR falls below MIN_PSNR.
+ */
+public class FixedPointCheck {
+
+    private static final double MIN_PSNR = 90.0;
+    private static final int WAV_HEADER = 44;
+
+    private static byte[] decode(File infile, boolean fixedPoint) throws IOException {
+        File outfile = File.createTempFile("toycodec", ".wav");
+        try {
+            DecoderParams parms = new DecoderParams();
+            parms.infile = infile;
+            parms.outfile = outfile;
+            parms.fixedPoint = fixedPoint;
+            new Decoder().decode(parms);
+            return Files.readAllBytes(outfile.toPath());
+        } finally {
+            outfile.delete();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("usage: FixedPointCheck <file.toy>");
+            System.exit(1);
+        }
+
+        File infile = new File(args[0]);
+        byte[] ref = decode(infile, false);
+        byte[] fixed = decode(infile, true);
+        if (ref.length != fixed.length) {
+            throw new RuntimeException("decoded lengths differ: " + ref.length + " vs. " + fixed.length);
+        }
+
+        double sqErr = 0;
+        int maxDiff = 0;
+        int samples = 0;
+        for (int i = WAV_HEADER; i + 1 < ref.length; i += 2) {
+            int a = (short) ((ref[i] & 0xFF) | (ref[i + 1] << 8));
+            int b = (short) ((fixed[i] & 0xFF) | (fixed[i + 1] << 8));
+            int diff = Math.abs(a - b);
+            maxDiff = Math.max(maxDiff, diff);
+            sqErr += diff * diff;
+            samples++;
+        }
+
+        double mse = sqErr / Math.max(samples, 1);
+        double psnr = (mse == 0) ? Double.POSITIVE_INFINITY : 10 * Math.log10((32767.0 * 32767.0) / mse);
+        System.out.println();
+        System.out.println(String.format("samples: %d   max. difference: %d   PSNR: %.1f dB", samples, maxDiff, psnr));
+
+        if (psnr < MIN_PSNR) {
+            System.out.println("PSNR below " + MIN_PSNR + " dB");
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.experiments;
+
+import java.util.Random;
+
+import de.maikmerten.toycodec.transform.MDCT;
+import de.maikmerten.toycodec.transform.Transform;
+import de.maikmerten.toycodec.transform.TransformFactory;
+
+/**
+ * Times the available MDCT implementations. Run with and without
+ * "--add-modules jdk.incubator.vector" (and e.g. -XX:UseAVX=2) to compare the
+ * vectorized and scalar direct-form paths.
+ */
+public class TransformBench {
+
+    private static final int ROUNDS = 5;
+
+    private static double benchmark(Transform mdct, int width, boolean forward, int iterations) {
+        Random r = new Random(width);
+        float[] input = new float[width];
+        float[] output = new float[width];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = r.nextFloat() - 0.5f;
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                if (forward) {
+                    mdct.submitSamples(input);
+                    mdct.mdct(output);
+                } else {
+                    mdct.submitCoefficients(input);
+                    mdct.imdct(output);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (best / 1000.0) / iterations;
+    }
+
+    private static void report(String name, Transform mdct, int width, int iterations) {
+        double fwd = benchmark(mdct, width, true, iterations);
+        double inv = benchmark(mdct, width, false, iterations);
+        System.out.println(String.format("%-8s width %5d   mdct %9.2f us   imdct %9.2f us", name, width, fwd, inv));
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Vector API available: " + TransformFactory.isVectorAvailable());
+
+        int[] widths = {256, 512, 1024};
+        for (int width : widths) {
+            int iterations = (256 * 256 * 400) / (width * width);
+            report("scalar", new MDCT(width), width, iterations);
+            if (TransformFactory.isVectorAvailable()) {
+                report("vector", TransformFactory.create(TransformFactory.Backend.VECTOR, width), width, iterations);
+            }
+            report("fft", TransformFactory.create(TransformFactory.Backend.FFT, width), width, iterations * 20);
+        }
+    }
+
+}
@@ -34,10 +34,12 @@ public class AudioWriter {
 
     private int channels;
     private int sampleRate;
-    private ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private byte[] pcmBuf = null;
     private int skipSamples = 0;
     private long samplesWritten = 0;
     private long maxSamples = 0;
+    // [start, end) of the current block, see consumeSamples()
+    private final int[] range = new int[2];
 
     public AudioWriter(int channels, int sampleRate) {
         this.channels = channels;
@@ -135,49 +137,124 @@ public class AudioWriter {
     }
 
 
-    private void writeSample(float sample, ByteArrayOutputStream baos) {
-        boolean f32 = false;
-        if (f32) {
-            // 32-bit float
-            int floatbits = Float.floatToIntBits(sample);
-            baos.write((byte) ((floatbits >> 24) & 0xFF));
-            baos.write((byte) ((floatbits >> 16) & 0xFF));
-            baos.write((byte) ((floatbits >> 8) & 0xFF));
-            baos.write((byte) (floatbits & 0xFF));
-
-        } else {
-            // 16-bit signed integer
-            int samplebits = (int) (sample * Short.MAX_VALUE);
-            samplebits = samplebits > Short.MAX_VALUE ? Short.MAX_VALUE : samplebits;
-            samplebits = samplebits < Short.MIN_VALUE ? Short.MIN_VALUE : samplebits;
-            baos.write((byte) (samplebits & 0xFF));
-            baos.write((byte) ((samplebits >> 8) & 0xFF));
-        }
+    private static void putSample(byte[] pcm, int pos, float sample) {
+        // 16-bit signed integer
+        int samplebits = (int) (sample * Short.MAX_VALUE);
+        samplebits = samplebits > Short.MAX_VALUE ? Short.MAX_VALUE : samplebits;
+        samplebits = samplebits < Short.MIN_VALUE ? Short.MIN_VALUE : samplebits;
+        pcm[pos] = (byte) (samplebits & 0xFF);
+        pcm[pos + 1] = (byte) ((samplebits >> 8) & 0xFF);
     }
 
-    public void writeAudio(OutputStream os, float[][] samples) {
-        baos.reset();
+    private static void putSample(byte[] pcm, int pos, int sample, int fracBits) {
+        long samplebits = ((long) sample * Short.MAX_VALUE) / (1L << fracBits);
+        samplebits = samplebits > Short.MAX_VALUE ? Short.MAX_VALUE : samplebits;
+        samplebits = samplebits < Short.MIN_VALUE ? Short.MIN_VALUE : samplebits;
+        pcm[pos] = (byte) (samplebits & 0xFF);
+        pcm[pos + 1] = (byte) ((samplebits >> 8) & 0xFF);
+    }
 
-        for (int s = 0; s < samples[0].length; s++) {
-            if (skipSamples > 0) {
-                skipSamples--;
-                continue;
-            }
+    /**
+     * Range [start, end) of the block that is output after applying the skip
+     * and length limits, the sample counters are advanced accordingly. The
+     * returned array is reused for every block.
+     */
+    private int[] consumeSamples(int blockLength) {
+        int start = Math.min(skipSamples, blockLength);
+        skipSamples -= start;
+        int end = blockLength;
+        if (maxSamples > 0) {
+            end = (int) Math.min(end, start + Math.max(0, maxSamples - samplesWritten));
+        }
+        samplesWritten += end - start;
+        range[0] = start;
+        range[1] = end;
+        return range;
+    }
 
-            if (samplesWritten >= maxSamples && maxSamples > 0) {
-                break;
+    /**
+     * Converts a block of samples to interleaved little-endian 16 bit PCM in the
+     * caller-supplied buffer, reconstructing left/right from mid/side for the
+     * channel pairs below midSideChannels on the way. Returns the number of
+     * bytes to write.
+     */
+    public int interleave(float[][] samples, int midSideChannels, byte[] pcm) {
+        int channels = samples.length;
+        int[] range = consumeSamples(samples[0].length);
+        int start = range[0];
+        int end = range[1];
+        int frameBytes = channels * 2;
+
+        int c = 0;
+        for (; (c + 1) < channels && (c + 1) < midSideChannels; c += 2) {
+            float[] mid = samples[c];
+            float[] side = samples[c + 1];
+            int pos = c * 2;
+            for (int s = start; s < end; s++) {
+                float m = mid[s];
+                float sd = side[s];
+                putSample(pcm, pos, m + sd);
+                putSample(pcm, pos + 2, m - sd);
+                pos += frameBytes;
+            }
+        }
+        for (; c < channels; c++) {
+            float[] channel = samples[c];
+            int pos = c * 2;
+            for (int s = start; s < end; s++) {
+                putSample(pcm, pos, channel[s]);
+                pos += frameBytes;
             }
+        }
 
-            for (int c = 0; c < samples.length; c++) {
-                float sample = samples[c][s];
-                writeSample(sample, baos);
+        return (end - start) * frameBytes;
+    }
+
+    /**
+     * Fixed-point variant of interleave(float[][], int, byte[]) for samples
+     * with "fracBits" fractional bits.
+     */
+    public int interleave(int[][] samples, int fracBits, int midSideChannels, byte[] pcm) {
+        int channels = samples.length;
+        int[] range = consumeSamples(samples[0].length);
+        int start = range[0];
+        int end = range[1];
+        int frameBytes = channels * 2;
+
+        int c = 0;
+        for (; (c + 1) < channels && (c + 1) < midSideChannels; c += 2) {
+            int[] mid = samples[c];
+            int[] side = samples[c + 1];
+            int pos = c * 2;
+            for (int s = start; s < end; s++) {
+                int m = mid[s];
+                int sd = side[s];
+                putSample(pcm, pos, m + sd, fracBits);
+                putSample(pcm, pos + 2, m - sd, fracBits);
+                pos += frameBytes;
+            }
+        }
+        for (; c < channels; c++) {
+            int[] channel = samples[c];
+            int pos = c * 2;
+            for (int s = start; s < end; s++) {
+                putSample(pcm, pos, channel[s], fracBits);
+                pos += frameBytes;
             }
+        }
+
+        return (end - start) * frameBytes;
+    }
 
-            samplesWritten++;
+    public void writeAudio(OutputStream os, float[][] samples) {
+        int bytes = samples[0].length * samples.length * 2;
+        if (pcmBuf == null || pcmBuf.length < bytes) {
+            pcmBuf = new byte[bytes];
         }
 
+        int len = interleave(samples, 0, pcmBuf);
         try {
-            os.write(baos.toByteArray());
+            os.write(pcmBuf, 0, len);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -26,89 +26,213 @@ package de.maikmerten.toycodec.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 
+/**
+ * Reads bits and bytes from an InputStream or from a ByteBuffer. Heap buffers
+ * are read in place, direct and memory-mapped buffers are copied into the
+ * byte buffer in bulk, so decoding does not issue a read call per kilobyte.
+ */
 public class BitInputStream extends InputStream {
     
+    // exactly one of "is" and "buffer" is set
     private final InputStream is;
+    private final ByteBuffer buffer;
+    // bit reservoir, the lowest "bits" bits are valid, oldest bit first
     private int bits = 0;
-    private int bitbuf = 0;
+    private long bitbuf = 0;
     private boolean empty = false;
     private byte[] byteBuf = new byte[1024];
-    private byte[] singleByte = new byte[1];
     private int byteBufPos = 0;
     private int byteBufBytes = 0;
     
     public BitInputStream(InputStream is) {
         this.is = is;
+        this.buffer = null;
     }
 
-    private int readSingleByte(byte[] out) {
-        if(byteBufPos >= byteBufBytes) {
-            // no fresh bytes in byte buffer, read from InputStream
-            try {
-                byteBufBytes = is.read(byteBuf);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+    /**
+     * Reads the bytes between the buffer's position and limit. The buffer
+     * itself is left untouched.
+     */
+    public BitInputStream(ByteBuffer buf) {
+        this.is = null;
+        this.buffer = buf.slice();
+        if(!buffer.hasArray()) {
+            byteBuf = new byte[16 * 1024];
+        }
+        rewindBuffer();
+    }
+
+    /**
+     * Starts over at the beginning of the buffer. A heap buffer's array serves
+     * as byte buffer directly and the buffer is marked as consumed.
+     */
+    private void rewindBuffer() {
+        if(buffer.hasArray()) {
+            byteBuf = buffer.array();
+            byteBufPos = buffer.arrayOffset();
+            byteBufBytes = buffer.arrayOffset() + buffer.limit();
+            buffer.position(buffer.limit());
+        } else {
             byteBufPos = 0;
-            if(byteBufBytes <= 0) {
+            byteBufBytes = 0;
+            buffer.rewind();
+        }
+    }
+
+    /**
+     * Reads up to len bytes from the underlying stream or buffer, returns -1 at the end.
+     */
+    private int readSource(byte[] buf, int off, int len) {
+        if(buffer != null) {
+            int count = Math.min(len, buffer.remaining());
+            if(count <= 0) {
                 return -1;
             }
+            buffer.get(buf, off, count);
+            return count;
+        }
+        try {
+            return is.read(buf, off, len);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        out[0] = byteBuf[byteBufPos++];
-        return 1;
     }
 
-    private void fillBitBuf() {
-        bits = 0;
-        int read = readSingleByte(singleByte);
-        if(read < 1) {
-            empty = true;
-            bits = 0;
-        } else {
-            bitbuf = singleByte[0] & 0xFF;
-            bits = 8;
+    /**
+     * Refills the byte buffer if it is drained. Returns false at the end of the input.
+     */
+    private boolean fillByteBuf() {
+        if(byteBufPos < byteBufBytes) {
+            return true;
+        }
+        // no fresh bytes in byte buffer, read from the source
+        byteBufBytes = readSource(byteBuf, 0, byteBuf.length);
+        byteBufPos = 0;
+        if(byteBufBytes <= 0) {
+            byteBufBytes = 0;
+            return false;
         }
+        return true;
     }
-   
 
-    public int readBit() {
-        if(bits < 1) {
-            fillBitBuf();
+    /**
+     * Tops up the reservoir with whole bytes, at least up to "needed" bits (at
+     * most 32), or until the input is exhausted. Bytes are taken straight from
+     * the byte buffer while they fit, so refills are rare.
+     */
+    private void fillBitBuf(int needed) {
+        while(bits < needed) {
+            if(!fillByteBuf()) {
+                empty = bits < 1;
+                return;
+            }
+            int count = Math.min((64 - bits) >> 3, byteBufBytes - byteBufPos);
+            long buf = bitbuf;
+            for(int i = 0; i < count; i++) {
+                buf = (buf << 8) | (byteBuf[byteBufPos++] & 0xFF);
+            }
+            bitbuf = buf;
+            bits += count << 3;
+        }
+    }
+
+    /**
+     * Returns the next n bits (up to 32) without consuming them. Past the end
+     * of the input, zero bits are appended.
+     */
+    public int peekBits(int n) {
+        if(bits < n) {
+            fillBitBuf(n);
+        }
+        long mask = (1L << n) - 1;
+        if(bits >= n) {
+            return (int) ((bitbuf >>> (bits - n)) & mask);
+        }
+        return (int) ((bitbuf << (n - bits)) & mask);
+    }
+
+    /**
+     * Consumes n bits (up to 32), usually after inspecting them with peekBits(n).
+     */
+    public void skipBits(int n) {
+        if(bits < n) {
+            fillBitBuf(n);
         }
-        int bit = ((bitbuf & 0x80) >> 7);
-        bitbuf <<= 1;
-        bits--;
-        return bit;
+        bits = Math.max(bits - n, 0);
+    }
+
+    /**
+     * Reads n bits (up to 32), the oldest bit being the most significant one.
+     */
+    public int readBits(int n) {
+        int value = peekBits(n);
+        skipBits(n);
+        return value;
+    }
+
+    public int readBit() {
+        return readBits(1);
     }
 
     public int readByte() {
-        int read = readSingleByte(singleByte);
-        if(read <= 0) {
+        // byte reads start on a byte boundary, bytes already in the reservoir come first
+        bits -= bits % 8;
+        if(bits >= 8) {
+            bits -= 8;
+            return (int) (bitbuf >>> bits) & 0xFF;
+        }
+
+        if(!fillByteBuf()) {
             return -1;
-        } else {
-            return singleByte[0] & 0xFF;
         }
+        return byteBuf[byteBufPos++] & 0xFF;
     }
     
     @Override
     public int read(byte[] buf) {
+        return read(buf, 0, buf.length);
+    }
+
+    /**
+     * Reads up to len bytes starting at the next byte boundary. Bytes left in
+     * the reservoir are handed out first, the rest is copied from the byte
+     * buffer or, for large reads, read from the underlying source directly.
+     */
+    @Override
+    public int read(byte[] buf, int off, int len) {
+        if(len == 0) {
+            return 0;
+        }
+
         int total = 0;
-        for(int i = 0; i < buf.length; i++) {
-            int read = readByte();
-            if(read < 0) {
-                if(i == 0) {
-                    return -1;
-                } else {
-                    return total;
+        bits -= bits % 8;
+        while(bits >= 8 && total < len) {
+            bits -= 8;
+            buf[off + total++] = (byte) (bitbuf >>> bits);
+        }
+
+        while(total < len) {
+            int buffered = byteBufBytes - byteBufPos;
+            if(buffered > 0) {
+                int count = Math.min(buffered, len - total);
+                System.arraycopy(byteBuf, byteBufPos, buf, off + total, count);
+                byteBufPos += count;
+                total += count;
+            } else if(len - total >= byteBuf.length) {
+                int read = readSource(buf, off + total, len - total);
+                if(read <= 0) {
+                    break;
                 }
+                total += read;
+            } else if(!fillByteBuf()) {
+                break;
             }
-            buf[i] = (byte)(read & 0xFF);
-            total++;
         }
 
-        return total;
+        return (total == 0) ? -1 : total;
     }
     
     public int read16() {
@@ -139,15 +263,27 @@ public class BitInputStream extends InputStream {
     
     public boolean hasBits() {
         if(bits < 1) {
-            fillBitBuf();
+            fillBitBuf(1);
         }
         return !empty;
     }
     
+    /**
+     * True if at least one more whole byte can be read. Unlike available(), this
+     * only consults the underlying stream once the buffered bytes are used up,
+     * and never for a ByteBuffer, where the end is known by position.
+     */
+    public boolean hasBytes() {
+        return bits >= 8 || byteBufPos < byteBufBytes || fillByteBuf();
+    }
+
     @Override
     public int available() {
+        if(buffer != null) {
+            return buffer.remaining() + (byteBufBytes - byteBufPos) + (bits / 8);
+        }
         try {
-            return is.available() + (byteBufBytes - byteBufPos);
+            return is.available() + (byteBufBytes - byteBufPos) + (bits / 8);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -155,6 +291,9 @@ public class BitInputStream extends InputStream {
     
     @Override
     public void close() {
+        if(is == null) {
+            return;
+        }
         try {
             is.close();
         } catch (IOException ex) {
@@ -162,15 +301,24 @@ public class BitInputStream extends InputStream {
         }
     }
 
+    /**
+     * Drops the remaining bits of a partially consumed byte, so reading continues
+     * on the next byte boundary.
+     */
     public void resetBits() {
-        bits = 0;
-        bitbuf = 0;
+        bits -= bits % 8;
         empty = false;
     }
 
     @Override
     public synchronized void reset() {
-        resetBits();
+        bits = 0;
+        bitbuf = 0;
+        empty = false;
+        if(buffer != null) {
+            rewindBuffer();
+            return;
+        }
         byteBufPos = 0;
         byteBufBytes = 0;
         try {
@@ -24,7 +24,6 @@ SOFTWARE.
 
 package de.maikmerten.toycodec.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -32,10 +31,12 @@ import java.io.OutputStream;
 public class BitOutputStream extends OutputStream {
 
     private final OutputStream os;
-    private final ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+    private final byte[] buf = new byte[4096];
+    private int bufPos = 0;
 
+    // bit accumulator, the lowest "bits" bits are pending, oldest bit first
     private int bits = 0;
-    private int bitbuf = 0;
+    private long bitbuf = 0;
     private boolean closeOutputStream = true;
 
     public BitOutputStream(OutputStream os) {
@@ -46,18 +47,38 @@ public class BitOutputStream extends OutputStream {
         this.closeOutputStream = closeOutputStream;
     }
 
+    private void writeBuffer() {
+        if (bufPos > 0) {
+            try {
+                os.write(buf, 0, bufPos);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            bufPos = 0;
+        }
+    }
+
+    /**
+     * Moves all complete bytes from the accumulator to the byte buffer.
+     */
+    private void drainBits() {
+        if (bufPos > buf.length - 8) {
+            writeBuffer();
+        }
+        while (bits >= 8) {
+            bits -= 8;
+            buf[bufPos++] = (byte) (bitbuf >>> bits);
+        }
+    }
+
     public void flushBits() {
+        drainBits();
         if (bits < 1) {
             return;
         }
 
         // pad bits to full byte
-        while (bits < 8) {
-            bitbuf <<= 1;
-            bits++;
-        }
-
-        write((byte) (bitbuf & 0xFF));
+        write((byte) (bitbuf << (8 - bits)));
         bits = 0;
         bitbuf = 0;
     }
@@ -65,27 +86,54 @@ public class BitOutputStream extends OutputStream {
     @Override
     public void flush() {
         flushBits();
-        
-        if(baos.size() > 0) {
-            try {
-                os.write(baos.toByteArray());
-                os.flush();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            baos.reset();
+        writeBuffer();
+        try {
+            os.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
     }
 
-    public void writeBit(int b) {
-        if (bits >= 8) {
-            flushBits();
+    /**
+     * Writes the lowest len bits (up to 32) of code, most significant bit first.
+     */
+    public void writeBits(int code, int len) {
+        bitbuf = (bitbuf << len) | (code & ((1L << len) - 1));
+        bits += len;
+        if (bits >= 32) {
+            drainBits();
         }
+    }
 
-        bitbuf <<= 1;
-        bitbuf |= (b & 0x1);
+    /**
+     * Appends the first bitCount bits of data, most significant bit of each byte
+     * first. Used to splice separately coded bit sequences without padding: on a
+     * byte boundary whole bytes are copied, otherwise they are shifted into the
+     * accumulator four at a time.
+     */
+    public void writeBits(byte[] data, long bitCount) {
+        int bytes = (int) (bitCount >>> 3);
+        int i = 0;
+        if ((bits & 0x7) == 0) {
+            write(data, 0, bytes);
+            i = bytes;
+        }
+        for (; i + 4 <= bytes; i += 4) {
+            int word = ((data[i] & 0xFF) << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8)
+                    | (data[i + 3] & 0xFF);
+            writeBits(word, 32);
+        }
+        for (; i < bytes; i++) {
+            writeBits(data[i], 8);
+        }
+        int rest = (int) (bitCount & 0x7);
+        if (rest > 0) {
+            writeBits((data[bytes] & 0xFF) >>> (8 - rest), rest);
+        }
+    }
 
-        bits++;
+    public void writeBit(int b) {
+        writeBits(b, 1);
     }
 
     public void writeBit(int[] bits) {
@@ -94,24 +142,36 @@ public class BitOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Writes a byte after all complete bytes of pending bits. A partial byte
+     * of pending bits is kept, call flushBits() first to pad it.
+     */
     public void write(byte b) {
-        baos.write(b);
-
-        if (baos.size() >= 512) {
-            try {
-                os.write(baos.toByteArray());
-                baos.reset();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-        }
+        drainBits();
+        buf[bufPos++] = b;
     }
 
     @Override
     public void write(byte[] bytes) {
-        for (byte b : bytes) {
-            write(b);
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) {
+        drainBits();
+        if (len > buf.length - bufPos) {
+            writeBuffer();
+            if (len > buf.length) {
+                try {
+                    os.write(bytes, off, len);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return;
+            }
         }
+        System.arraycopy(bytes, off, buf, bufPos, len);
+        bufPos += len;
     }
     
     @Override
@@ -0,0 +1,226 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mixed-radix (4, 2 and generic odd radix) complex forward FFT.
+ * Instances only hold immutable tables and can be shared between threads.
+ */
+public class FFT {
+
+    private final int size;
+    // stage radices and input permutation, shared with IntFFT
+    final int[] radices;
+    final int[] perm;
+    private final float[] twiddleRe;
+    private final float[] twiddleIm;
+
+    public FFT(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("FFT size must be positive");
+        }
+        this.size = size;
+        this.radices = factorize(size);
+
+        this.twiddleRe = new float[size];
+        this.twiddleIm = new float[size];
+        for (int i = 0; i < size; i++) {
+            double phi = (-2.0 * Math.PI * i) / size;
+            twiddleRe[i] = (float) Math.cos(phi);
+            twiddleIm[i] = (float) Math.sin(phi);
+        }
+
+        this.perm = new int[size];
+        fillPermutation(0, 0, 1, size, radices.length - 1);
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    private static int[] factorize(int n) {
+        List<Integer> factors = new ArrayList<>();
+        while (n % 4 == 0) {
+            factors.add(4);
+            n /= 4;
+        }
+        while (n % 2 == 0) {
+            factors.add(2);
+            n /= 2;
+        }
+        for (int p = 3; n > 1; p += 2) {
+            while (n % p == 0) {
+                factors.add(p);
+                n /= p;
+            }
+        }
+
+        int[] result = new int[factors.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = factors.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Digit-reversal input permutation matching the decimation-in-time stages,
+     * the last radix being the outermost split.
+     */
+    private void fillPermutation(int pos, int offset, int stride, int len, int stage) {
+        if (len == 1) {
+            perm[pos] = offset;
+            return;
+        }
+        int radix = radices[stage];
+        int subLen = len / radix;
+        for (int q = 0; q < radix; q++) {
+            fillPermutation(pos + q * subLen, offset + q * stride, stride * radix, subLen, stage - 1);
+        }
+    }
+
+    /**
+     * Computes the unscaled forward DFT, X[k] = sum x[n] * exp(-2 pi i n k / size).
+     * Input and output arrays must not overlap.
+     */
+    public void transform(float[] inRe, float[] inIm, float[] outRe, float[] outIm) {
+        for (int i = 0; i < size; i++) {
+            int p = perm[i];
+            outRe[i] = inRe[p];
+            outIm[i] = inIm[p];
+        }
+
+        int len = 1;
+        for (int radix : radices) {
+            int span = len * radix;
+            int twStep = size / span;
+            switch (radix) {
+                case 2:
+                    butterfly2(outRe, outIm, len, span, twStep);
+                    break;
+                case 4:
+                    butterfly4(outRe, outIm, len, span, twStep);
+                    break;
+                default:
+                    butterflyGeneric(outRe, outIm, radix, len, span, twStep);
+                    break;
+            }
+            len = span;
+        }
+    }
+
+    private void butterfly2(float[] re, float[] im, int len, int span, int twStep) {
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                int i0 = block + j;
+                int i1 = i0 + len;
+                float wr = twiddleRe[j * twStep];
+                float wi = twiddleIm[j * twStep];
+                float xr = re[i1] * wr - im[i1] * wi;
+                float xi = re[i1] * wi + im[i1] * wr;
+                re[i1] = re[i0] - xr;
+                im[i1] = im[i0] - xi;
+                re[i0] += xr;
+                im[i0] += xi;
+            }
+        }
+    }
+
+    private void butterfly4(float[] re, float[] im, int len, int span, int twStep) {
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                int i0 = block + j;
+                int i1 = i0 + len;
+                int i2 = i1 + len;
+                int i3 = i2 + len;
+
+                int t1 = j * twStep;
+                int t2 = 2 * t1;
+                int t3 = 3 * t1;
+
+                float x0r = re[i0];
+                float x0i = im[i0];
+                float x1r = re[i1] * twiddleRe[t1] - im[i1] * twiddleIm[t1];
+                float x1i = re[i1] * twiddleIm[t1] + im[i1] * twiddleRe[t1];
+                float x2r = re[i2] * twiddleRe[t2] - im[i2] * twiddleIm[t2];
+                float x2i = re[i2] * twiddleIm[t2] + im[i2] * twiddleRe[t2];
+                float x3r = re[i3] * twiddleRe[t3] - im[i3] * twiddleIm[t3];
+                float x3i = re[i3] * twiddleIm[t3] + im[i3] * twiddleRe[t3];
+
+                float s02r = x0r + x2r;
+                float s02i = x0i + x2i;
+                float d02r = x0r - x2r;
+                float d02i = x0i - x2i;
+                float s13r = x1r + x3r;
+                float s13i = x1i + x3i;
+                float d13r = x1r - x3r;
+                float d13i = x1i - x3i;
+
+                re[i0] = s02r + s13r;
+                im[i0] = s02i + s13i;
+                // -i * (x1 - x3)
+                re[i1] = d02r + d13i;
+                im[i1] = d02i - d13r;
+                re[i2] = s02r - s13r;
+                im[i2] = s02i - s13i;
+                // +i * (x1 - x3)
+                re[i3] = d02r - d13i;
+                im[i3] = d02i + d13r;
+            }
+        }
+    }
+
+    private void butterflyGeneric(float[] re, float[] im, int radix, int len, int span, int twStep) {
+        float[] xr = new float[radix];
+        float[] xi = new float[radix];
+        int rootStep = size / radix;
+
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                for (int q = 0; q < radix; q++) {
+                    int idx = block + j + q * len;
+                    int t = q * j * twStep;
+                    xr[q] = re[idx] * twiddleRe[t] - im[idx] * twiddleIm[t];
+                    xi[q] = re[idx] * twiddleIm[t] + im[idx] * twiddleRe[t];
+                }
+                for (int k = 0; k < radix; k++) {
+                    float sr = 0f;
+                    float si = 0f;
+                    for (int q = 0; q < radix; q++) {
+                        int t = ((q * k) % radix) * rootStep;
+                        sr += xr[q] * twiddleRe[t] - xi[q] * twiddleIm[t];
+                        si += xr[q] * twiddleIm[t] + xi[q] * twiddleRe[t];
+                    }
+                    int idx = block + j + k * len;
+                    re[idx] = sr;
+                    im[idx] = si;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+import java.util.Arrays;
+
+/**
+ * O(N log N) implementation of the MDCT as defined in format.md.
+ *
+ * The 2N windowed samples are folded into a N-point DCT-IV, which in turn is
+ * computed with a N/2-point complex FFT (a quarter of the window length)
+ * framed by a pre- and post-twiddle. The inverse transform evaluates the
+ * DCT-IV once per coefficient block and unfolds it for the overlap-add.
+ *
+ * Results match the direct evaluation in MDCT up to float rounding: for
+ * widths up to 512, coefficients and reconstructed samples deviate by less
+ * than 2e-6 relative to the block's peak magnitude. In 16 bit PCM output this
+ * at most flips the truncation of individual samples by one LSB.
+ */
+public class FastMDCT extends MDCT {
+
+    private final float[] fold;
+    private final float[] fftInRe;
+    private final float[] fftInIm;
+    private final float[] fftOutRe;
+    private final float[] fftOutIm;
+
+    // DCT-IV of the previous and current coefficient block
+    private float[] dctPrev;
+    private float[] dctCurr;
+
+    public FastMDCT(int n) {
+        super(n);
+
+        this.fold = new float[N];
+        this.fftInRe = new float[N / 2];
+        this.fftInIm = new float[N / 2];
+        this.fftOutRe = new float[N / 2];
+        this.fftOutIm = new float[N / 2];
+        this.dctPrev = new float[N];
+        this.dctCurr = new float[N];
+    }
+
+    private void dct4(float[] in, float[] out) {
+        dct4(in, out, N);
+    }
+
+    /**
+     * X[k] = sum u[n] * cos(pi/N * (n + 0.5) * (k + 0.5)) for k < lines, computed
+     * via N/2-point FFT. FFT bin k yields lines 2k and N-1-2k, the post-twiddle
+     * only runs for bins with a line below the limit. Other lines are left as is.
+     */
+    private void dct4(float[] in, float[] out, int lines) {
+        int half = N / 2;
+        for (int i = 0; i < half; i++) {
+            float re = in[2 * i];
+            float im = in[N - 1 - 2 * i];
+            float c = pre.preTwiddleCos[i];
+            float s = pre.preTwiddleSin[i];
+            fftInRe[i] = re * c - im * s;
+            fftInIm[i] = re * s + im * c;
+        }
+
+        pre.fft.transform(fftInRe, fftInIm, fftOutRe, fftOutIm);
+
+        if (lines == N) {
+            for (int k = 0; k < half; k++) {
+                float re = fftOutRe[k];
+                float im = fftOutIm[k];
+                float c = pre.postTwiddleCos[k];
+                float s = pre.postTwiddleSin[k];
+                out[2 * k] = re * c - im * s;
+                out[N - 1 - 2 * k] = -(re * s + im * c);
+            }
+            return;
+        }
+
+        // even lines 2k < lines
+        for (int k = 0; k < (lines + 1) / 2; k++) {
+            out[2 * k] = fftOutRe[k] * pre.postTwiddleCos[k] - fftOutIm[k] * pre.postTwiddleSin[k];
+        }
+        // odd lines N-1-2k < lines
+        for (int k = (N - lines + 1) / 2; k < half; k++) {
+            out[N - 1 - 2 * k] = -(fftOutRe[k] * pre.postTwiddleSin[k] + fftOutIm[k] * pre.postTwiddleCos[k]);
+        }
+    }
+
+    @Override
+    public void mdct(float[] outputCoeffs) {
+        mdct(outputCoeffs, N);
+    }
+
+    /**
+     * Every FFT bin contributes to both a low and a high line (see dct4()), and
+     * every input feeds every bin, so for lines > 0 the fold, pre-twiddle and FFT
+     * run in full. Only the post-twiddle and the output writes are limited to
+     * the requested lines, the savings are correspondingly small.
+     */
+    @Override
+    public void mdct(float[] outputCoeffs, int lines) {
+        if (outputCoeffs.length != N) {
+            throw new IllegalArgumentException("array size needed: " + N);
+        }
+        if (lines < 0 || lines > N) {
+            throw new IllegalArgumentException("lines must range from 0 to " + N);
+        }
+        if (lines == 0) {
+            Arrays.fill(outputCoeffs, 0f);
+            return;
+        }
+
+        int half = N / 2;
+        float[] older = sampleBlocks[samplesNewest ^ 1];
+        float[] newer = sampleBlocks[samplesNewest];
+
+        // fold the 2N windowed samples into N DCT-IV inputs
+        for (int n = 0; n < half; n++) {
+            int a = half + n;
+            int b = half - 1 - n;
+            fold[n] = -(window[N + a] * newer[a]) - (window[N + b] * newer[b]);
+        }
+        for (int n = half; n < N; n++) {
+            int a = n - half;
+            int b = N + half - 1 - n;
+            fold[n] = (window[a] * older[a]) - (window[b] * older[b]);
+        }
+
+        dct4(fold, outputCoeffs, lines);
+        Arrays.fill(outputCoeffs, lines, N, 0f);
+    }
+
+    @Override
+    public void imdct(float[] outputSamples) {
+        if (outputSamples.length != N) {
+            throw new IllegalArgumentException("array size needed: " + N);
+        }
+
+        float twoDivN = (2f / N);
+        int half = N / 2;
+        int threeHalf = 3 * half;
+
+        // unfold DCT-IV of block b+1 (first half of its window) and block b (second half)
+        for (int n = 0; n < half; n++) {
+            float t1 = dctCurr[n + half];
+            float t2 = -dctPrev[half - 1 - n];
+            outputSamples[n] = twoDivN * (window[n] * t1 + window[N + n] * t2);
+        }
+        for (int n = half; n < N; n++) {
+            float t1 = -dctCurr[threeHalf - 1 - n];
+            float t2 = -dctPrev[n - half];
+            outputSamples[n] = twoDivN * (window[n] * t1 + window[N + n] * t2);
+        }
+    }
+
+    @Override
+    public void commitCoefficients(int lines) {
+        super.commitCoefficients(lines);
+
+        float[] tmp = dctPrev;
+        dctPrev = dctCurr;
+        dctCurr = tmp;
+        if (lines > 0) {
+            dct4(coeffBlocks[coeffsNewest], dctCurr);
+        } else {
+            // all-zero block, no need to run the FFT
+            Arrays.fill(dctCurr, 0f);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+/**
+ * Fixed-point counterpart of FFT, operating on long values with Q30 twiddles.
+ * Stages and permutation are taken from a FFT of the same size, the twiddles
+ * are derived with StrictMath so the tables (and results) are identical on
+ * every JVM.
+ */
+public class IntFFT {
+
+    static final int TWIDDLE_BITS = 30;
+    private static final long ROUND = 1L << (TWIDDLE_BITS - 1);
+
+    private final int size;
+    private final int[] radices;
+    private final int[] perm;
+    private final int[] twiddleRe;
+    private final int[] twiddleIm;
+
+    public IntFFT(FFT fft) {
+        this.size = fft.getSize();
+        this.radices = fft.radices;
+        this.perm = fft.perm;
+
+        this.twiddleRe = new int[size];
+        this.twiddleIm = new int[size];
+        for (int i = 0; i < size; i++) {
+            double phi = (-2.0 * StrictMath.PI * i) / size;
+            twiddleRe[i] = toFixed(StrictMath.cos(phi));
+            twiddleIm[i] = toFixed(StrictMath.sin(phi));
+        }
+    }
+
+    static int toFixed(double value) {
+        return (int) StrictMath.round(value * (1L << TWIDDLE_BITS));
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Computes the unscaled forward DFT like FFT.transform(). Products are
+     * formed in 64 bits, so all intermediate values (which grow by up to the
+     * transform size) must stay below 2^32 in magnitude.
+     */
+    public void transform(long[] inRe, long[] inIm, long[] outRe, long[] outIm) {
+        for (int i = 0; i < size; i++) {
+            int p = perm[i];
+            outRe[i] = inRe[p];
+            outIm[i] = inIm[p];
+        }
+
+        int len = 1;
+        for (int radix : radices) {
+            int span = len * radix;
+            int twStep = size / span;
+            switch (radix) {
+                case 2:
+                    butterfly2(outRe, outIm, len, span, twStep);
+                    break;
+                case 4:
+                    butterfly4(outRe, outIm, len, span, twStep);
+                    break;
+                default:
+                    butterflyGeneric(outRe, outIm, radix, len, span, twStep);
+                    break;
+            }
+            len = span;
+        }
+    }
+
+    private void butterfly2(long[] re, long[] im, int len, int span, int twStep) {
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                int i0 = block + j;
+                int i1 = i0 + len;
+                long wr = twiddleRe[j * twStep];
+                long wi = twiddleIm[j * twStep];
+                long xr = (re[i1] * wr - im[i1] * wi + ROUND) >> TWIDDLE_BITS;
+                long xi = (re[i1] * wi + im[i1] * wr + ROUND) >> TWIDDLE_BITS;
+                re[i1] = re[i0] - xr;
+                im[i1] = im[i0] - xi;
+                re[i0] += xr;
+                im[i0] += xi;
+            }
+        }
+    }
+
+    private void butterfly4(long[] re, long[] im, int len, int span, int twStep) {
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                int i0 = block + j;
+                int i1 = i0 + len;
+                int i2 = i1 + len;
+                int i3 = i2 + len;
+
+                int t1 = j * twStep;
+                int t2 = 2 * t1;
+                int t3 = 3 * t1;
+
+                long x0r = re[i0];
+                long x0i = im[i0];
+                long x1r = (re[i1] * twiddleRe[t1] - im[i1] * twiddleIm[t1] + ROUND) >> TWIDDLE_BITS;
+                long x1i = (re[i1] * twiddleIm[t1] + im[i1] * twiddleRe[t1] + ROUND) >> TWIDDLE_BITS;
+                long x2r = (re[i2] * twiddleRe[t2] - im[i2] * twiddleIm[t2] + ROUND) >> TWIDDLE_BITS;
+                long x2i = (re[i2] * twiddleIm[t2] + im[i2] * twiddleRe[t2] + ROUND) >> TWIDDLE_BITS;
+                long x3r = (re[i3] * twiddleRe[t3] - im[i3] * twiddleIm[t3] + ROUND) >> TWIDDLE_BITS;
+                long x3i = (re[i3] * twiddleIm[t3] + im[i3] * twiddleRe[t3] + ROUND) >> TWIDDLE_BITS;
+
+                long s02r = x0r + x2r;
+                long s02i = x0i + x2i;
+                long d02r = x0r - x2r;
+                long d02i = x0i - x2i;
+                long s13r = x1r + x3r;
+                long s13i = x1i + x3i;
+                long d13r = x1r - x3r;
+                long d13i = x1i - x3i;
+
+                re[i0] = s02r + s13r;
+                im[i0] = s02i + s13i;
+                // -i * (x1 - x3)
+                re[i1] = d02r + d13i;
+                im[i1] = d02i - d13r;
+                re[i2] = s02r - s13r;
+                im[i2] = s02i - s13i;
+                // +i * (x1 - x3)
+                re[i3] = d02r - d13i;
+                im[i3] = d02i + d13r;
+            }
+        }
+    }
+
+    private void butterflyGeneric(long[] re, long[] im, int radix, int len, int span, int twStep) {
+        long[] xr = new long[radix];
+        long[] xi = new long[radix];
+        int rootStep = size / radix;
+
+        for (int block = 0; block < size; block += span) {
+            for (int j = 0; j < len; j++) {
+                for (int q = 0; q < radix; q++) {
+                    int idx = block + j + q * len;
+                    int t = q * j * twStep;
+                    xr[q] = (re[idx] * twiddleRe[t] - im[idx] * twiddleIm[t] + ROUND) >> TWIDDLE_BITS;
+                    xi[q] = (re[idx] * twiddleIm[t] + im[idx] * twiddleRe[t] + ROUND) >> TWIDDLE_BITS;
+                }
+                for (int k = 0; k < radix; k++) {
+                    long sr = 0;
+                    long si = 0;
+                    for (int q = 0; q < radix; q++) {
+                        int t = ((q * k) % radix) * rootStep;
+                        sr += xr[q] * twiddleRe[t] - xi[q] * twiddleIm[t];
+                        si += xr[q] * twiddleIm[t] + xi[q] * twiddleRe[t];
+                    }
+                    int idx = block + j + k * len;
+                    re[idx] = (sr + ROUND) >> TWIDDLE_BITS;
+                    im[idx] = (si + ROUND) >> TWIDDLE_BITS;
+                }
+            }
+        }
+    }
+
+}
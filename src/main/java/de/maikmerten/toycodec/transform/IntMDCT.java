@@ -0,0 +1,189 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-point inverse MDCT, structured like FastMDCT but computed in integer
+ * arithmetic only, so decoded output is bit-exact on every JVM and CPU.
+ *
+ * Coefficients are passed in with COEFF_FRAC_BITS fractional bits, samples are
+ * returned with SAMPLE_FRAC_BITS fractional bits (1.0 being full scale). The
+ * value ranges produced by real encoders leave plenty of headroom; coefficient
+ * blocks far outside that range overflow, which is still deterministic.
+ */
+public class IntMDCT {
+
+    public static final int COEFF_FRAC_BITS = 12;
+    public static final int SAMPLE_FRAC_BITS = 24;
+
+    // window * 2/N is stored with GAIN_BITS fractional bits
+    private static final int GAIN_BITS = 36;
+    private static final int OUT_SHIFT = COEFF_FRAC_BITS + GAIN_BITS - SAMPLE_FRAC_BITS;
+    private static final long OUT_ROUND = 1L << (OUT_SHIFT - 1);
+    private static final long TWIDDLE_ROUND = 1L << (IntFFT.TWIDDLE_BITS - 1);
+
+    /**
+     * Fixed-point tables shared by all IntMDCT-instances of a width.
+     */
+    static class Tables {
+        final IntFFT fft;
+        final int[] preTwiddleCos;
+        final int[] preTwiddleSin;
+        final int[] postTwiddleCos;
+        final int[] postTwiddleSin;
+        final long[] gain;
+
+        Tables(int width, FFT fft) {
+            int half = width / 2;
+            this.fft = new IntFFT(fft);
+            preTwiddleCos = new int[half];
+            preTwiddleSin = new int[half];
+            postTwiddleCos = new int[half];
+            postTwiddleSin = new int[half];
+            for (int i = 0; i < half; i++) {
+                double pre = (StrictMath.PI * i) / width;
+                preTwiddleCos[i] = IntFFT.toFixed(StrictMath.cos(pre));
+                preTwiddleSin[i] = IntFFT.toFixed(-StrictMath.sin(pre));
+                double post = (StrictMath.PI * (i + 0.25)) / width;
+                postTwiddleCos[i] = IntFFT.toFixed(StrictMath.cos(post));
+                postTwiddleSin[i] = IntFFT.toFixed(-StrictMath.sin(post));
+            }
+
+            gain = new long[2 * width];
+            for (int n = 0; n < (2 * width); n++) {
+                double window = StrictMath.sin(((n + 0.5) / (2.0 * width)) * StrictMath.PI);
+                gain[n] = StrictMath.round(window * (2.0 / width) * (1L << GAIN_BITS));
+            }
+        }
+    }
+
+    private final int N;
+    private final Tables tables;
+    private final int[][] coeffBlocks;
+    private int coeffsNewest = 1;
+
+    private final long[] fftInRe;
+    private final long[] fftInIm;
+    private final long[] fftOutRe;
+    private final long[] fftOutIm;
+
+    // DCT-IV of the previous and current coefficient block
+    private long[] dctPrev;
+    private long[] dctCurr;
+
+    public IntMDCT(int n) {
+        if ((n % 2) != 0) {
+            throw new IllegalArgumentException("width needs to be even");
+        }
+        this.N = n;
+        this.tables = MDCT.getPrecompute(n).getFixedPointTables();
+        this.coeffBlocks = new int[2][N];
+
+        this.fftInRe = new long[N / 2];
+        this.fftInIm = new long[N / 2];
+        this.fftOutRe = new long[N / 2];
+        this.fftOutIm = new long[N / 2];
+        this.dctPrev = new long[N];
+        this.dctCurr = new long[N];
+    }
+
+    private void dct4(int[] in, long[] out) {
+        int half = N / 2;
+        for (int i = 0; i < half; i++) {
+            long re = in[2 * i];
+            long im = in[N - 1 - 2 * i];
+            long c = tables.preTwiddleCos[i];
+            long s = tables.preTwiddleSin[i];
+            fftInRe[i] = (re * c - im * s + TWIDDLE_ROUND) >> IntFFT.TWIDDLE_BITS;
+            fftInIm[i] = (re * s + im * c + TWIDDLE_ROUND) >> IntFFT.TWIDDLE_BITS;
+        }
+
+        tables.fft.transform(fftInRe, fftInIm, fftOutRe, fftOutIm);
+
+        for (int k = 0; k < half; k++) {
+            long re = fftOutRe[k];
+            long im = fftOutIm[k];
+            long c = tables.postTwiddleCos[k];
+            long s = tables.postTwiddleSin[k];
+            out[2 * k] = (re * c - im * s + TWIDDLE_ROUND) >> IntFFT.TWIDDLE_BITS;
+            out[N - 1 - 2 * k] = -((re * s + im * c + TWIDDLE_ROUND) >> IntFFT.TWIDDLE_BITS);
+        }
+    }
+
+    public void imdct(int[] outputSamples) {
+        if (outputSamples.length != N) {
+            throw new IllegalArgumentException("array size needed: " + N);
+        }
+
+        long[] gain = tables.gain;
+        int half = N / 2;
+        int threeHalf = 3 * half;
+
+        // unfold DCT-IV of block b+1 (first half of its window) and block b (second half)
+        for (int n = 0; n < half; n++) {
+            long t1 = dctCurr[n + half];
+            long t2 = -dctPrev[half - 1 - n];
+            outputSamples[n] = (int) ((gain[n] * t1 + gain[N + n] * t2 + OUT_ROUND) >> OUT_SHIFT);
+        }
+        for (int n = half; n < N; n++) {
+            long t1 = -dctCurr[threeHalf - 1 - n];
+            long t2 = -dctPrev[n - half];
+            outputSamples[n] = (int) ((gain[n] * t1 + gain[N + n] * t2 + OUT_ROUND) >> OUT_SHIFT);
+        }
+    }
+
+    /**
+     * Block to be filled with the next N coefficients in place, followed by commitCoefficients().
+     */
+    public int[] getCoefficientInput() {
+        return coeffBlocks[coeffsNewest ^ 1];
+    }
+
+    public void commitCoefficients() {
+        commitCoefficients(N);
+    }
+
+    /**
+     * See MDCT.commitCoefficients(int), all-zero blocks (lines == 0) skip the DCT-IV.
+     */
+    public void commitCoefficients(int lines) {
+        if (lines < 0 || lines > N) {
+            throw new IllegalArgumentException("lines must range from 0 to " + N);
+        }
+        coeffsNewest ^= 1;
+
+        long[] tmp = dctPrev;
+        dctPrev = dctCurr;
+        dctCurr = tmp;
+        if (lines > 0) {
+            dct4(coeffBlocks[coeffsNewest], dctCurr);
+        } else {
+            Arrays.fill(dctCurr, 0);
+        }
+    }
+
+}
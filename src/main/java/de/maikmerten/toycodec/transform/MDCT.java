@@ -24,31 +24,75 @@ SOFTWARE.
 
 package de.maikmerten.toycodec.transform;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class MDCT {
+/**
+ * Reference implementation of the MDCT, evaluated in direct form.
+ */
+public class MDCT implements Transform {
 
     final int N;
-    float[] sampleBuffer;
-    float[] coeffBuffer;
+    final MDCTPrecompute pre;
+    // two blocks each, used as a ring: index *Newest holds block b+1, the other block b
+    final float[][] sampleBlocks;
+    final float[][] coeffBlocks;
+    int samplesNewest = 1;
+    int coeffsNewest = 1;
+    // per coefficient block: lines beyond this count are zero
+    final int[] coeffLines;
     float[] window;
+    float[] signedWindow;
     float[][] cosTerm;
 
-    private static Map<Integer, MDCTPrecompute> precompMap = new HashMap<>();
+    private static final ConcurrentMap<Integer, PrecomputeRef> precompMap = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<MDCTPrecompute> precompQueue = new ReferenceQueue<>();
 
     /**
-     * Private class to share precomputed values between MDCT-instances
+     * Softly referenced cache entry: tables of widths without live MDCT-instances
+     * are given back under memory pressure.
      */
-    private static class MDCTPrecompute {
+    private static class PrecomputeRef extends SoftReference<MDCTPrecompute> {
+        private final int width;
+
+        private PrecomputeRef(MDCTPrecompute pre, int width) {
+            super(pre, precompQueue);
+            this.width = width;
+        }
+    }
+
+    /**
+     * Class to share precomputed values between MDCT-instances
+     */
+    static class MDCTPrecompute {
         private int width;
-        private float[] window;
+        float[] window;
+
+        // cosine term for row n is cosTermSign[n] * dct4Kernel[cosTermRow[n]]
+        private float[][] dct4Kernel;
         private float[][] cosTerm;
+        int[] cosTermRow;
+        float[] cosTermSign;
+        float[] signedWindow;
+
+        // tables for the FFT-based DCT-IV, see FastMDCT
+        FFT fft;
+        float[] preTwiddleCos;
+        float[] preTwiddleSin;
+        float[] postTwiddleCos;
+        float[] postTwiddleSin;
+
+        // fixed-point tables for IntMDCT, built on first use
+        private IntMDCT.Tables fixedPointTables;
 
         private MDCTPrecompute(int width) {
             this.width = width;
-            precomputeCosTerm();
             precomputeWindow();
+            precomputeCosTermMapping();
+            precomputeTwiddles();
         }
 
         float windowFunc(int n) {
@@ -64,63 +108,192 @@ public class MDCT {
             }
         }
 
-        float cosTermFunc(int n, int k) {
-            double c;
-            c = Math.cos((Math.PI / width) * (n + 0.5 + (width / 2.0)) * (k + 0.5));
-            return (float) c;
+        /**
+         * cos(pi/N * (n + 0.5 + N/2) * (k + 0.5)) for 2N rows n only takes the values
+         * of the N rows of the DCT-IV kernel cos(pi/N * (j + 0.5) * (k + 0.5)), with j
+         * derived from m = n + N/2 and a sign flip for m >= N.
+         */
+        private void precomputeCosTermMapping() {
+            int half = width / 2;
+            cosTermRow = new int[2 * width];
+            cosTermSign = new float[2 * width];
+            signedWindow = new float[2 * width];
+            for(int n = 0; n < (2 * width); n++) {
+                int m = n + half;
+                if(m < width) {
+                    cosTermRow[n] = m;
+                    cosTermSign[n] = 1f;
+                } else if(m < 2 * width) {
+                    cosTermRow[n] = (2 * width) - 1 - m;
+                    cosTermSign[n] = -1f;
+                } else {
+                    cosTermRow[n] = m - (2 * width);
+                    cosTermSign[n] = -1f;
+                }
+                signedWindow[n] = cosTermSign[n] * window[n];
+            }
         }
-        
-        private void precomputeCosTerm() {
+
+        /**
+         * The symmetric DCT-IV kernel is only built on first use of the direct-form
+         * transform. Each row runs a Chebyshev recurrence seeded on the diagonal,
+         * the lower triangle is mirrored.
+         */
+        private void precomputeDct4Kernel() {
+            dct4Kernel = new float[width][width];
+            for(int j = 0; j < width; j++) {
+                double theta = (Math.PI / width) * (j + 0.5);
+                double twoCos = 2 * Math.cos(theta);
+                double prev = Math.cos(theta * (j - 0.5));
+                double curr = Math.cos(theta * (j + 0.5));
+                for(int k = j; k < width; k++) {
+                    dct4Kernel[j][k] = (float) curr;
+                    dct4Kernel[k][j] = (float) curr;
+                    double next = twoCos * curr - prev;
+                    prev = curr;
+                    curr = next;
+                }
+            }
+
             cosTerm = new float[2 * width][];
             for(int n = 0; n < (2 * width); n++) {
-                cosTerm[n] = new float[2 * width];
-                for(int k = 0; k < (2 * width); k++) {
-                    cosTerm[n][k] = cosTermFunc(n, k);
-                }
+                cosTerm[n] = dct4Kernel[cosTermRow[n]];
+            }
+        }
+
+        synchronized float[][] getCosTerm() {
+            if(cosTerm == null) {
+                precomputeDct4Kernel();
             }
+            return cosTerm;
+        }
+
+        synchronized IntMDCT.Tables getFixedPointTables() {
+            if(fixedPointTables == null) {
+                fixedPointTables = new IntMDCT.Tables(width, fft);
+            }
+            return fixedPointTables;
+        }
+
+        private void precomputeTwiddles() {
+            int half = width / 2;
+            fft = new FFT(half);
+            preTwiddleCos = new float[half];
+            preTwiddleSin = new float[half];
+            postTwiddleCos = new float[half];
+            postTwiddleSin = new float[half];
+            for (int i = 0; i < half; i++) {
+                double pre = (Math.PI * i) / width;
+                preTwiddleCos[i] = (float) Math.cos(pre);
+                preTwiddleSin[i] = (float) -Math.sin(pre);
+                double post = (Math.PI * (i + 0.25)) / width;
+                postTwiddleCos[i] = (float) Math.cos(post);
+                postTwiddleSin[i] = (float) -Math.sin(post);
+            }
+        }
+    }
+
+    private static void expungeStaleEntries() {
+        PrecomputeRef ref;
+        while((ref = (PrecomputeRef) precompQueue.poll()) != null) {
+            precompMap.remove(ref.width, ref);
         }
     }
 
-    private static MDCTPrecompute getPrecompute(int n) {
-        MDCTPrecompute pre = precompMap.get(n);
-        if(pre == null) {
-            pre = new MDCTPrecompute(n);
-            precompMap.put(n, pre);
+    static MDCTPrecompute getPrecompute(int n) {
+        expungeStaleEntries();
+
+        PrecomputeRef ref = precompMap.get(n);
+        MDCTPrecompute pre = (ref != null) ? ref.get() : null;
+        if(pre != null) {
+            return pre;
         }
-        return pre;
+
+        // build at most once per width, keep a strong reference until returned
+        MDCTPrecompute[] result = new MDCTPrecompute[1];
+        precompMap.compute(n, (width, old) -> {
+            MDCTPrecompute p = (old != null) ? old.get() : null;
+            if(p == null) {
+                p = new MDCTPrecompute(width);
+                old = new PrecomputeRef(p, width);
+            }
+            result[0] = p;
+            return old;
+        });
+        return result[0];
     }
 
     public MDCT(int n) {
+        if ((n % 2) != 0) {
+            throw new IllegalArgumentException("width needs to be even");
+        }
         this.N = n;
         // space for two blocks of sample data
-        this.sampleBuffer = new float[2 * N];
+        this.sampleBlocks = new float[2][N];
         // space for two blocks of coefficients
-        this.coeffBuffer = new float[2 * N];
+        this.coeffBlocks = new float[2][N];
+        this.coeffLines = new int[2];
 
-        MDCTPrecompute pre = getPrecompute(n);
+        this.pre = getPrecompute(n);
         this.window = pre.window;
-        this.cosTerm = pre.cosTerm;
+        this.signedWindow = pre.signedWindow;
     }
 
+    @Override
+    public int getWidth() {
+        return N;
+    }
 
+    /**
+     * Rows of the cosine term, only valid together with signedWindow.
+     */
+    float[][] getCosTerm() {
+        if (cosTerm == null) {
+            cosTerm = pre.getCosTerm();
+        }
+        return cosTerm;
+    }
+
+    @Override
     public void mdct(float[] outputCoeffs) {
+        mdct(outputCoeffs, N);
+    }
+
+    @Override
+    public void mdct(float[] outputCoeffs, int lines) {
         if (outputCoeffs.length != N) {
             throw new IllegalArgumentException("array size needed: " + N);
         }
+        if (lines < 0 || lines > N) {
+            throw new IllegalArgumentException("lines must range from 0 to " + N);
+        }
+        float[][] cosTerm = getCosTerm();
+        float[] older = sampleBlocks[samplesNewest ^ 1];
+        float[] newer = sampleBlocks[samplesNewest];
 
-        for (int k = 0; k < N; k++) {
+        for (int k = 0; k < lines; k++) {
             float coeff = 0;
-            for (int n = 0; n < (2 * N); n++) {
-                coeff += window[n] * sampleBuffer[n] * cosTerm[n][k];
+            for (int n = 0; n < N; n++) {
+                coeff += signedWindow[n] * older[n] * cosTerm[n][k];
+            }
+            for (int n = 0; n < N; n++) {
+                coeff += signedWindow[N + n] * newer[n] * cosTerm[N + n][k];
             }
             outputCoeffs[k] = coeff;
         }
+        Arrays.fill(outputCoeffs, lines, N, 0f);
     }
 
+    @Override
     public void imdct(float[] outputSamples) {
         if (outputSamples.length != N) {
             throw new IllegalArgumentException("array size needed: " + N);
         }
+        float[][] cosTerm = getCosTerm();
+        float[] older = coeffBlocks[coeffsNewest ^ 1];
+        float[] newer = coeffBlocks[coeffsNewest];
+        int olderLines = coeffLines[coeffsNewest ^ 1];
+        int newerLines = coeffLines[coeffsNewest];
         
         float twoDivN = (2f / N);
 
@@ -131,38 +304,84 @@ public class MDCT {
             float t1 = 0f;
             float t2 = 0f;
 
-            for (int k = 0; k < N; k++) {
-                t1 += coeffBuffer[N + k] * cosTerm[n][k]; // coeff-block b+1
-                t2 += coeffBuffer[k] * cosTerm[n + N][k]; // coeff-block b
+            for (int k = 0; k < newerLines; k++) {
+                t1 += newer[k] * cosTerm[n][k]; // coeff-block b+1
+            }
+            for (int k = 0; k < olderLines; k++) {
+                t2 += older[k] * cosTerm[n + N][k]; // coeff-block b
             }
 
-            t1 *= window[n];
-            t2 *= window[N + n];
+            t1 *= signedWindow[n];
+            t2 *= signedWindow[N + n];
 
             outputSamples[n] = twoDivN * (t1 + t2);
         }
     }
 
+    /**
+     * Block to be filled with the next N samples in place, followed by commitSamples().
+     */
+    @Override
+    public float[] getSampleInput() {
+        return sampleBlocks[samplesNewest ^ 1];
+    }
+
+    /**
+     * Makes the block returned by getSampleInput() the newest block, no samples are shifted.
+     */
+    @Override
+    public void commitSamples() {
+        samplesNewest ^= 1;
+    }
+
+    @Override
     public void submitSamples(float[] newSamples) {
         if (newSamples.length != N) {
             throw new IllegalArgumentException(N + "samples needed");
         }
 
-        // copy second half to first half of sample buffer
-        System.arraycopy(sampleBuffer, N, sampleBuffer, 0, N);
-        // copy new sample data into second half of sample buffer
-        System.arraycopy(newSamples, 0, sampleBuffer, N, N);
+        System.arraycopy(newSamples, 0, getSampleInput(), 0, N);
+        commitSamples();
+    }
+
+    /**
+     * Block to be filled with the next N coefficients in place, followed by commitCoefficients().
+     */
+    @Override
+    public float[] getCoefficientInput() {
+        return coeffBlocks[coeffsNewest ^ 1];
+    }
+
+    /**
+     * Makes the block returned by getCoefficientInput() the newest block.
+     */
+    @Override
+    public void commitCoefficients() {
+        commitCoefficients(N);
+    }
+
+    /**
+     * Like commitCoefficients(), but promises that only the first "lines"
+     * coefficients of the block may be non-zero, so the inverse transform can
+     * skip the remaining lines (or the whole block if lines is zero).
+     */
+    @Override
+    public void commitCoefficients(int lines) {
+        if (lines < 0 || lines > N) {
+            throw new IllegalArgumentException("lines must range from 0 to " + N);
+        }
+        coeffsNewest ^= 1;
+        coeffLines[coeffsNewest] = lines;
     }
 
+    @Override
     public void submitCoefficients(float[] newCoeffs) {
         if (newCoeffs.length != N) {
             throw new IllegalArgumentException(N + "coeffs needed");
         }
 
-        // copy second half to first halve of coeff buffer
-        System.arraycopy(coeffBuffer, N, coeffBuffer, 0, N);
-        // copy new coefficents into second half of coefficients buffer
-        System.arraycopy(newCoeffs, 0, coeffBuffer, N, N);
+        System.arraycopy(newCoeffs, 0, getCoefficientInput(), 0, N);
+        commitCoefficients();
     }
 
 }
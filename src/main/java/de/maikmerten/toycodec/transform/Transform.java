@@ -0,0 +1,66 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+/**
+ * MDCT as defined in format.md. Implementations are obtained through
+ * TransformFactory and must match the reference MDCT up to float rounding.
+ *
+ * Both directions keep the two most recent blocks: samples (or coefficients)
+ * are written into the block returned by get*Input() and made current by the
+ * matching commit*() call before running the transform.
+ */
+public interface Transform {
+
+    int getWidth();
+
+    float[] getSampleInput();
+
+    void commitSamples();
+
+    void submitSamples(float[] newSamples);
+
+    void mdct(float[] outputCoeffs);
+
+    /**
+     * Like mdct(float[]), but only the first "lines" coefficients are computed,
+     * the remaining ones are set to zero.
+     */
+    void mdct(float[] outputCoeffs, int lines);
+
+    float[] getCoefficientInput();
+
+    void commitCoefficients();
+
+    /**
+     * Only the first "lines" coefficients of the committed block may be non-zero.
+     */
+    void commitCoefficients(int lines);
+
+    void submitCoefficients(float[] newCoeffs);
+
+    void imdct(float[] outputSamples);
+
+}
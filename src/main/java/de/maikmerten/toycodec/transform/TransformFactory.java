@@ -0,0 +1,322 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates MDCT implementations ("backends"). A backend is only handed out
+ * after it passed a self-check against the reference MDCT for the requested
+ * width, otherwise the factory falls back to the FFT-based and finally to the
+ * reference implementation.
+ */
+public class TransformFactory {
+
+    /**
+     * System property to select the backend if not set through the encoder or decoder parameters.
+     */
+    public static final String PROPERTY = "toycodec.transform";
+
+    public enum Backend {
+        // reference implementation, direct evaluation
+        DIRECT("direct"),
+        // direct evaluation using the Vector API
+        VECTOR("vector"),
+        // O(N log N) via FFT
+        FFT("fft"),
+        // integer-only inverse transform, only used by the decoder (see IntMDCT)
+        FIXED("fixed");
+
+        private final String name;
+
+        Backend(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public static Backend fromName(String name) {
+            for (Backend b : values()) {
+                if (b.name.equalsIgnoreCase(name)) {
+                    return b;
+                }
+            }
+            throw new IllegalArgumentException("unknown transform backend: " + name);
+        }
+    }
+
+    // max. deviation from the reference, relative to the block's peak magnitude
+    private static final float SELFCHECK_TOLERANCE = 1e-4f;
+
+    private static Boolean vectorAvailable = null;
+    private static final ConcurrentMap<String, Boolean> selfChecks = new ConcurrentHashMap<>();
+
+    /**
+     * The Vector API is an incubator module and only resolved if the JVM is
+     * started with "--add-modules jdk.incubator.vector".
+     */
+    public static synchronized boolean isVectorAvailable() {
+        if (vectorAvailable == null) {
+            boolean available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+            if (available) {
+                try {
+                    new VectorMDCT(16).mdct(new float[16]);
+                } catch (LinkageError e) {
+                    available = false;
+                }
+            }
+            vectorAvailable = available;
+        }
+        return vectorAvailable;
+    }
+
+    /**
+     * Backend by name, or taken from the system property if name is null. Defaults to FFT.
+     */
+    public static Backend select(String name) {
+        if (name == null) {
+            name = System.getProperty(PROPERTY, Backend.FFT.getName());
+        }
+        return Backend.fromName(name);
+    }
+
+    /**
+     * The requested backend if it is available and passes the self-check for
+     * this width, otherwise the first working fallback.
+     */
+    public static Backend verify(Backend requested, int width) {
+        Backend backend = requested;
+        while (backend != Backend.DIRECT && !selfCheck(backend, width)) {
+            Backend fallback = (backend == Backend.FFT) ? Backend.DIRECT : Backend.FFT;
+            System.err.println("WARNING: transform backend " + backend.getName() + " not usable for width " + width
+                    + ", falling back to " + fallback.getName());
+            backend = fallback;
+        }
+        return backend;
+    }
+
+    /**
+     * Float transform for the requested backend, subject to verify(). The
+     * fixed-point backend has no float interface and falls back to FFT.
+     */
+    public static Transform create(Backend requested, int width) {
+        Backend backend = verify(requested == Backend.FIXED ? Backend.FFT : requested, width);
+        return instantiate(backend, width);
+    }
+
+    private static MDCT instantiate(Backend backend, int width) {
+        switch (backend) {
+            case VECTOR:
+                return new VectorMDCT(width);
+            case FFT:
+                return new FastMDCT(width);
+            default:
+                return new MDCT(width);
+        }
+    }
+
+    private static boolean selfCheck(Backend backend, int width) {
+        if (backend == Backend.VECTOR && !isVectorAvailable()) {
+            return false;
+        }
+        return selfChecks.computeIfAbsent(backend.getName() + ":" + width, key -> {
+            try {
+                return (backend == Backend.FIXED) ? checkFixedPoint(width) : checkFloat(backend, width);
+            } catch (RuntimeException | LinkageError e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Checks a candidate against a direct evaluation of the transform definition
+     * in double precision. Only a few lines and samples per block are evaluated,
+     * so the check stays O(N) in memory and does not build the DCT-IV kernel.
+     */
+    private static class Reference {
+        // number of lines (forward) and samples (inverse) compared per block
+        private static final int POINTS = 24;
+
+        private final int width;
+        private final double[] window;
+        private final int[] points;
+
+        private Reference(int width, Random r) {
+            this.width = width;
+            this.window = new double[2 * width];
+            for (int n = 0; n < window.length; n++) {
+                window[n] = Math.sin(((n + 0.5) / (2.0 * width)) * Math.PI);
+            }
+            // both ends and points spread in between
+            this.points = new int[Math.min(POINTS, width)];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = (i == 0) ? 0 : (i == 1) ? width - 1 : r.nextInt(width);
+            }
+        }
+
+        private double basis(int n, int k) {
+            return Math.cos((Math.PI / width) * (n + 0.5 + width / 2) * (k + 0.5));
+        }
+
+        /**
+         * Line k of the MDCT over the older and newer block of samples.
+         */
+        private double mdct(float[] older, float[] newer, int k) {
+            double sum = 0;
+            for (int n = 0; n < width; n++) {
+                sum += window[n] * older[n] * basis(n, k);
+                sum += window[width + n] * newer[n] * basis(width + n, k);
+            }
+            return sum;
+        }
+
+        /**
+         * Sample n of the windowed overlap-add of the older and newer coefficient block.
+         */
+        private double imdct(float[] older, int olderLines, float[] newer, int newerLines, int n) {
+            double t1 = 0;
+            double t2 = 0;
+            for (int k = 0; k < newerLines; k++) {
+                t1 += newer[k] * basis(n, k);
+            }
+            for (int k = 0; k < olderLines; k++) {
+                t2 += older[k] * basis(width + n, k);
+            }
+            return (2.0 / width) * (window[n] * t1 + window[width + n] * t2);
+        }
+
+        /**
+         * Compares the sampled points of a result, the deviation is taken relative
+         * to the peak magnitude of the reference values.
+         */
+        private boolean matches(double[] reference, float[] result) {
+            double peak = 0;
+            double maxDiff = 0;
+            for (int i = 0; i < points.length; i++) {
+                peak = Math.max(peak, Math.abs(reference[i]));
+                maxDiff = Math.max(maxDiff, Math.abs(reference[i] - result[points[i]]));
+            }
+            return maxDiff <= SELFCHECK_TOLERANCE * peak;
+        }
+    }
+
+    /**
+     * Lines of the coefficient blocks used for checking: full, truncated and all-zero blocks.
+     */
+    private static int checkLines(int block, int width) {
+        int[] lines = { width, width / 3, 0, width };
+        return lines[block % lines.length];
+    }
+
+    private static boolean checkFloat(Backend backend, int width) {
+        MDCT candidate = instantiate(backend, width);
+        Random r = new Random(width);
+        Reference reference = new Reference(width, r);
+        double[] refOut = new double[reference.points.length];
+        float[] out = new float[width];
+        float[][] samples = new float[2][width];
+        float[][] coeffs = new float[2][width];
+        int[] coeffLines = new int[2];
+
+        for (int block = 0; block < 4; block++) {
+            int lines = checkLines(block, width);
+            int newest = block & 1;
+            int older = newest ^ 1;
+
+            for (int i = 0; i < width; i++) {
+                samples[newest][i] = 2 * r.nextFloat() - 1;
+            }
+            candidate.submitSamples(samples[newest]);
+            candidate.mdct(out, lines);
+            for (int i = 0; i < refOut.length; i++) {
+                int k = reference.points[i];
+                refOut[i] = (k < lines) ? reference.mdct(samples[older], samples[newest], k) : 0;
+            }
+            if (!reference.matches(refOut, out)) {
+                return false;
+            }
+
+            for (int i = 0; i < width; i++) {
+                coeffs[newest][i] = (i < lines) ? width * (r.nextFloat() - 0.5f) : 0f;
+            }
+            coeffLines[newest] = lines;
+            System.arraycopy(coeffs[newest], 0, candidate.getCoefficientInput(), 0, width);
+            candidate.commitCoefficients(lines);
+            candidate.imdct(out);
+            for (int i = 0; i < refOut.length; i++) {
+                refOut[i] = reference.imdct(coeffs[older], coeffLines[older], coeffs[newest], lines,
+                        reference.points[i]);
+            }
+            if (!reference.matches(refOut, out)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean checkFixedPoint(int width) {
+        IntMDCT candidate = new IntMDCT(width);
+        Random r = new Random(width);
+        Reference reference = new Reference(width, r);
+        float coeffUnit = 1 << IntMDCT.COEFF_FRAC_BITS;
+        float sampleUnit = 1 << IntMDCT.SAMPLE_FRAC_BITS;
+        double[] refOut = new double[reference.points.length];
+        int[] intOut = new int[width];
+        float[] out = new float[width];
+        float[][] coeffs = new float[2][width];
+        int[] coeffLines = new int[2];
+
+        for (int block = 0; block < 4; block++) {
+            int lines = checkLines(block, width);
+            int newest = block & 1;
+            int older = newest ^ 1;
+
+            int[] intCoeffs = candidate.getCoefficientInput();
+            for (int i = 0; i < width; i++) {
+                intCoeffs[i] = (i < lines) ? (int) (width * (r.nextFloat() - 0.5f) * coeffUnit) : 0;
+                coeffs[newest][i] = intCoeffs[i] / coeffUnit;
+            }
+            coeffLines[newest] = lines;
+            candidate.commitCoefficients(lines);
+            candidate.imdct(intOut);
+            for (int i = 0; i < width; i++) {
+                out[i] = intOut[i] / sampleUnit;
+            }
+            for (int i = 0; i < refOut.length; i++) {
+                refOut[i] = reference.imdct(coeffs[older], coeffLines[older], coeffs[newest], lines,
+                        reference.points[i]);
+            }
+            if (!reference.matches(refOut, out)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
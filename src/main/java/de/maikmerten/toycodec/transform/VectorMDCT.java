@@ -0,0 +1,156 @@
+/*
+MIT License
+
+Copyright (c) 2024 Maik Merten
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package de.maikmerten.toycodec.transform;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Direct-form MDCT using the (incubating) Java Vector API for windowing,
+ * dot products and the windowed overlap-add. Only instantiate through
+ * TransformFactory, which checks that jdk.incubator.vector is available.
+ */
+class VectorMDCT extends MDCT {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final float[] windowed;
+    private final float[] sum1;
+    private final float[] sum2;
+
+    VectorMDCT(int n) {
+        super(n);
+        this.windowed = new float[2 * N];
+        this.sum1 = new float[N];
+        this.sum2 = new float[N];
+    }
+
+    private void applyWindow(float[] samples, int offset) {
+        int bound = SPECIES.loopBound(N);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector w = FloatVector.fromArray(SPECIES, signedWindow, offset + i);
+            FloatVector s = FloatVector.fromArray(SPECIES, samples, i);
+            w.mul(s).intoArray(windowed, offset + i);
+        }
+        for (; i < N; i++) {
+            windowed[offset + i] = signedWindow[offset + i] * samples[i];
+        }
+    }
+
+    @Override
+    public void mdct(float[] outputCoeffs, int lines) {
+        if (outputCoeffs.length != N) {
+            throw new IllegalArgumentException("array size needed: " + N);
+        }
+        if (lines < 0 || lines > N) {
+            throw new IllegalArgumentException("lines must range from 0 to " + N);
+        }
+
+        float[][] cosTerm = getCosTerm();
+        applyWindow(sampleBlocks[samplesNewest ^ 1], 0);
+        applyWindow(sampleBlocks[samplesNewest], N);
+
+        // accumulate windowed[n] * cosTerm[n][k..] over rows, lanes span k
+        int bound = SPECIES.loopBound(lines);
+        int k = 0;
+        for (; k < bound; k += SPECIES.length()) {
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int n = 0; n < (2 * N); n++) {
+                FloatVector c = FloatVector.fromArray(SPECIES, cosTerm[n], k);
+                acc = c.fma(FloatVector.broadcast(SPECIES, windowed[n]), acc);
+            }
+            acc.intoArray(outputCoeffs, k);
+        }
+        for (; k < lines; k++) {
+            float coeff = 0;
+            for (int n = 0; n < (2 * N); n++) {
+                coeff += windowed[n] * cosTerm[n][k];
+            }
+            outputCoeffs[k] = coeff;
+        }
+        Arrays.fill(outputCoeffs, lines, N, 0f);
+    }
+
+    private float dot(float[] coeffs, float[] cos, int lines) {
+        if (lines == 0) {
+            return 0f;
+        }
+        // two independent accumulator chains
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(lines / 2) * 2;
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        int k = 0;
+        for (; k < bound; k += 2 * step) {
+            acc1 = FloatVector.fromArray(SPECIES, coeffs, k).fma(FloatVector.fromArray(SPECIES, cos, k), acc1);
+            acc2 = FloatVector.fromArray(SPECIES, coeffs, k + step).fma(FloatVector.fromArray(SPECIES, cos, k + step), acc2);
+        }
+        float sum = acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+        for (; k < lines; k++) {
+            sum += coeffs[k] * cos[k];
+        }
+        return sum;
+    }
+
+    @Override
+    public void imdct(float[] outputSamples) {
+        if (outputSamples.length != N) {
+            throw new IllegalArgumentException("array size needed: " + N);
+        }
+
+        float[][] cosTerm = getCosTerm();
+        float[] older = coeffBlocks[coeffsNewest ^ 1];
+        float[] newer = coeffBlocks[coeffsNewest];
+        int olderLines = coeffLines[coeffsNewest ^ 1];
+        int newerLines = coeffLines[coeffsNewest];
+
+        // dot products for coeff-block b+1 and coeff-block b, only over lines that may be non-zero
+        int step = SPECIES.length();
+        for (int n = 0; n < N; n++) {
+            sum1[n] = dot(newer, cosTerm[n], newerLines);
+            sum2[n] = dot(older, cosTerm[n + N], olderLines);
+        }
+
+        // windowed overlap-add of both blocks
+        float twoDivN = (2f / N);
+        int bound = SPECIES.loopBound(N);
+        int n = 0;
+        for (; n < bound; n += step) {
+            FloatVector w1 = FloatVector.fromArray(SPECIES, signedWindow, n);
+            FloatVector w2 = FloatVector.fromArray(SPECIES, signedWindow, N + n);
+            FloatVector t1 = FloatVector.fromArray(SPECIES, sum1, n);
+            FloatVector t2 = FloatVector.fromArray(SPECIES, sum2, n);
+            t1.mul(w1).add(t2.mul(w2)).mul(twoDivN).intoArray(outputSamples, n);
+        }
+        for (; n < N; n++) {
+            outputSamples[n] = twoDivN * (sum1[n] * signedWindow[n] + sum2[n] * signedWindow[N + n]);
+        }
+    }
+
+}